@@ -0,0 +1,214 @@
+package edu.phystech.davydovmv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеры движка правил: создание доски из строк с расстановкой, ходы без взятия, взятия в ряд простой шашкой и дамкой,
+ * проверка обязательного взятия и проверка целых партий из long_games. Партии берутся из тех же файлов, что и
+ * в тестах; каталог с ними задаётся свойством fixtures (по умолчанию путь от корня проекта).
+ * Ходы делаются на копии заранее подготовленной доски, поэтому в замеры ходов входит копирование - его стоимость
+ * отдельно показывает copyBoard. Запуск через main добавляет профилировщик -prof gc, чтобы кроме ns/op следить
+ * за байтами на операцию (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TowersBoardBenchmark {
+
+    private static final String FIXTURES =
+            System.getProperty("fixtures", "test/java/edu/phystech/davydovmv/TowersBoard");
+
+    private static final String[] QUIET_MOVES = {
+            "c3_w-b4_w f6_b-g5_b",
+            "b2_w-c3_w g7_b-f6_b",
+            "a1_w-b2_w h8_b-g7_b",
+    };
+
+    /**
+     * Партия из файла: две строки с расстановкой и строки с ходами
+     */
+    private static class Game {
+        private final String whitePositions;
+        private final String blackPositions;
+        private final String[] moves;
+        private final String text;
+
+        Game(Path path) throws IOException {
+            text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            whitePositions = lines.get(0);
+            blackPositions = lines.get(1);
+            moves = lines.subList(2, lines.size()).stream().filter(line -> !line.isBlank()).toArray(String[]::new);
+        }
+
+        TowersBoard createBoard() {
+            return new TowersBoard(whitePositions, blackPositions);
+        }
+    }
+
+    /**
+     * Партия из long_games. Параметр вынесен в отдельное состояние, чтобы остальные замеры не повторялись
+     * для каждой партии. long_game_1.txt, как и в тестах, заканчивается неверным ходом
+     */
+    @State(Scope.Benchmark)
+    public static class LongGame {
+        @Param({"long_game_1.txt", "long_game_2.txt"})
+        private String name;
+
+        private String text;
+
+        private static MoveResult getExpectedResult(String name) {
+            return name.equals("long_game_1.txt") ? MoveResult.INVALID_MOVE : MoveResult.OK;
+        }
+
+        @Setup
+        public void setUp() throws IOException {
+            text = new Game(Paths.get(FIXTURES, "long_games", name)).text;
+            MoveResult result = checkGame(text).getResult();
+            if (result != getExpectedResult(name)) {
+                throw new IllegalStateException("benchmark game " + name + " is broken: " + result.getMessage());
+            }
+        }
+    }
+
+    private TowersBoard initialBoard;
+    private TowersBoard forcedCaptureBoard;
+    private Game beatInARow;
+    private Game kingBeatInARow;
+
+    @Setup
+    public void setUp() throws IOException {
+        initialBoard = new TowersBoard(TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+        forcedCaptureBoard = new TowersBoard(initialBoard);
+        beatInARow = new Game(Paths.get(FIXTURES, "beat_in_a_row.txt"));
+        kingBeatInARow = new Game(Paths.get(FIXTURES, "king_beat_in_a_row.txt"));
+        checkOk(playQuietMoves());
+        checkOk(playGame(beatInARow));
+        checkOk(playGame(kingBeatInARow));
+    }
+
+    private static void checkOk(MoveResult result) {
+        if (result != MoveResult.OK) {
+            throw new IllegalStateException("benchmark position is broken: " + result.getMessage());
+        }
+    }
+
+    @Benchmark
+    public TowersBoard createBoard() {
+        return new TowersBoard(TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+    }
+
+    @Benchmark
+    public TowersBoard copyBoard() {
+        return new TowersBoard(initialBoard);
+    }
+
+    private MoveResult playQuietMoves() {
+        TowersBoard board = new TowersBoard(initialBoard);
+        MoveResult result = MoveResult.OK;
+        for (int i = 0; i < QUIET_MOVES.length && result == MoveResult.OK; ++i) {
+            result = board.tryMakeMoves(QUIET_MOVES[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Три строки ходов без взятия из начальной расстановки
+     */
+    @Benchmark
+    public MoveResult quietMoves() {
+        return playQuietMoves();
+    }
+
+    private static MoveResult playGame(Game game) {
+        TowersBoard board = game.createBoard();
+        MoveResult result = MoveResult.OK;
+        for (int i = 0; i < game.moves.length && result == MoveResult.OK; ++i) {
+            result = board.tryMakeMoves(game.moves[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Взятия в ряд простыми шашками (beat_in_a_row.txt), включая создание доски
+     */
+    @Benchmark
+    public MoveResult beatInARow() {
+        return playGame(beatInARow);
+    }
+
+    /**
+     * Взятия дамками через всю доску (king_beat_in_a_row.txt), включая создание доски
+     */
+    @Benchmark
+    public MoveResult kingBeatInARow() {
+        return playGame(kingBeatInARow);
+    }
+
+    /**
+     * Ход и обратный ход одной шашкой на полной доске: каждый ход проверяет, нет ли у белых обязательного взятия.
+     * Доска после пары ходов возвращается в исходную позицию, поэтому копировать её не нужно
+     */
+    @Benchmark
+    public void forcedCaptureCheck(Blackhole blackhole) {
+        blackhole.consume(forcedCaptureBoard.tryMakeMove("c3_w-d4_w", Colour.WHITE));
+        blackhole.consume(forcedCaptureBoard.tryMakeMove("d4_w-c3_w", Colour.WHITE));
+    }
+
+    private static ValidationResult checkGame(String text) throws IOException {
+        return new TowersBoard(new LineReader(new StringReader(text))).check();
+    }
+
+    /**
+     * Проверка целой партии через {@link Board#check()}: разбор текста и все ходы до конца партии или до первой
+     * ошибки. Текст партии читается из памяти, а не с диска
+     */
+    @Benchmark
+    public ValidationResult run(LongGame game) throws IOException {
+        return checkGame(game.text);
+    }
+
+    /**
+     * Запускает замеры с профилировщиком -prof gc. Аргументы передаются JMH как есть; если среди них нет
+     * шаблона замеров, запускаются все замеры этого класса
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(options)
+                .addProfiler(GCProfiler.class);
+        if (options.getIncludes().isEmpty()) {
+            builder.include(TowersBoardBenchmark.class.getSimpleName());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,479 @@
+package edu.phystech.davydovmv;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поиск лучшего хода в позиции {@link TowersBoard}: alpha-beta с итеративным углублением и таблицей транспозиций.
+ * Ходы берутся из {@link TowersMoveGenerator} и делаются и отменяются на самой доске (см.
+ * {@link Board#makeMove(MoveBuffer, int, UndoRecord)}), поэтому поиск создаёт объекты только при росте буферов.
+ * Порядок ходов: ход из таблицы, затем взятия (чем больше шагов, тем раньше), затем ходы-убийцы, то есть тихие ходы,
+ * которые вызвали отсечение на той же глубине. На листьях взятия досчитываются, пока они есть (бить обязательно,
+ * поэтому оценка позиции со взятием на доске не имеет смысла). Поиск останавливается по времени или по числу узлов,
+ * результатом считается последняя полностью просчитанная глубина.
+ */
+public class AlphaBetaSearch {
+
+    /**
+     * Оценка позиции, в которой у стороны нет ходов (без поправки на глубину)
+     */
+    public static final int MATE = 30000;
+
+    private static final int INFINITY = MATE + 1;
+    private static final int MAX_PLY = 128;
+    private static final int MAX_QUIESCENCE_PLIES = 16;
+    private static final int BUDGET_CHECK_INTERVAL = 1024;
+
+    private static final int MAN_VALUE = 100;
+    private static final int KING_VALUE = 250;
+    private static final int OWN_CHECKER_VALUE = 40;
+    private static final int PRISONER_VALUE = 60;
+    private static final int ADVANCE_VALUE = 3;
+
+    private static final int TABLE_MOVE_ORDER = 1 << 20;
+    private static final int CAPTURE_ORDER = 1 << 16;
+    private static final int FIRST_KILLER_ORDER = 1 << 15;
+    private static final int SECOND_KILLER_ORDER = 1 << 14;
+
+    private TowersBoard board;
+    private final TranspositionTable table;
+    private final AtomicBoolean stopSignal;
+    private TowersMoveGenerator generator;
+    private final MoveBuffer[] buffers = new MoveBuffer[MAX_PLY];
+    private final UndoRecord[] undoRecords = new UndoRecord[MAX_PLY];
+    private final int[][] orders = new int[MAX_PLY][];
+    private final int[][] orderScores = new int[MAX_PLY][];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final StringBuilder iterationBestMove = new StringBuilder();
+
+    private long nodes;
+    private long nodesLimit;
+    private long deadline;
+    private boolean stopped;
+
+    /**
+     * Итог поиска
+     */
+    public static class Result {
+        private final String bestMove;
+        private final int score;
+        private final int depth;
+        private final long nodes;
+        private final long nanos;
+
+        Result(String bestMove, int score, int depth, long nodes, long nanos) {
+            this.bestMove = bestMove;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return Лучший ход в нотации {@link Board#makeMoves} или null, если ходов нет
+         */
+        public String getBestMove() {
+            return bestMove;
+        }
+
+        /**
+         * @return Оценка позиции с точки зрения ходящей стороны
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * @return Последняя полностью просчитанная глубина в полуходах
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return Количество просмотренных позиций
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return Время поиска в наносекундах
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return Скорость поиска в позициях в секунду
+         */
+        public double getNodesPerSecond() {
+            return nodes / (Math.max(nanos, 1) / 1e9);
+        }
+    }
+
+    /**
+     * @param board Доска, в позиции которой ищется ход (после поиска возвращается в исходную позицию)
+     * @param table Таблица транспозиций, её можно переиспользовать между поисками
+     */
+    public AlphaBetaSearch(TowersBoard board, TranspositionTable table) {
+        this(board, table, new AtomicBoolean());
+    }
+
+    /**
+     * @param board Доска, в позиции которой ищется ход
+     * @param table Таблица транспозиций, общая для всех потоков
+     * @param stopSignal Флаг, по которому поиск останавливается досрочно (проверяется вместе с бюджетом)
+     */
+    AlphaBetaSearch(TowersBoard board, TranspositionTable table, AtomicBoolean stopSignal) {
+        this.board = board;
+        this.table = table;
+        this.stopSignal = stopSignal;
+        generator = new TowersMoveGenerator(board);
+        for (int i = 0; i < MAX_PLY; ++i) {
+            buffers[i] = new MoveBuffer();
+            undoRecords[i] = new UndoRecord();
+            orders[i] = new int[0];
+            orderScores[i] = new int[0];
+        }
+    }
+
+    /**
+     * Переключает поиск на другую доску, сохраняя таблицу и буферы (для анализа многих партий одним поиском)
+     */
+    void setBoard(TowersBoard newBoard) {
+        board = newBoard;
+        generator = new TowersMoveGenerator(newBoard);
+    }
+
+    private static Colour getOppositeColour(Colour colour) {
+        return colour == Colour.WHITE ? Colour.BLACK : Colour.WHITE;
+    }
+
+    /**
+     * Ищет лучший ход, углубляясь на один полуход, пока не кончится бюджет или не будет достигнута maxDepth
+     * @param colour Цвет стороны, которая ходит
+     * @param maxDepth Наибольшая глубина в полуходах
+     * @param timeLimitMillis Ограничение по времени в миллисекундах, Long.MAX_VALUE - без ограничения
+     * @param maxNodes Ограничение по количеству позиций, Long.MAX_VALUE - без ограничения
+     * @return Итог поиска
+     */
+    public Result search(Colour colour, int maxDepth, long timeLimitMillis, long maxNodes) {
+        table.newSearch();
+        return search(colour, 1, maxDepth, timeLimitMillis, maxNodes);
+    }
+
+    /**
+     * То же, что {@link #search(Colour, int, long, long)}, но углубление начинается с firstDepth и таблица не
+     * помечается новым поиском (это делает тот, кто запускает потоки)
+     */
+    Result search(Colour colour, int firstDepth, int maxDepth, long timeLimitMillis, long maxNodes) {
+        long startTime = System.nanoTime();
+        deadline = timeLimitMillis == Long.MAX_VALUE ? Long.MAX_VALUE : startTime + timeLimitMillis * 1_000_000;
+        nodesLimit = maxNodes;
+        nodes = 0;
+        stopped = false;
+        for (int[] plyKillers : killers) {
+            plyKillers[0] = 0;
+            plyKillers[1] = 0;
+        }
+        String bestMove = null;
+        int bestScore = 0;
+        int completedDepth = 0;
+        for (int depth = firstDepth; depth <= Math.min(maxDepth, MAX_PLY - 1); ++depth) {
+            iterationBestMove.setLength(0);
+            int score = search(colour, depth, 0, -INFINITY, INFINITY);
+            if (stopped) {
+                if (bestMove == null && iterationBestMove.length() > 0) {
+                    bestMove = iterationBestMove.toString();
+                }
+                break;
+            }
+            bestMove = iterationBestMove.length() > 0 ? iterationBestMove.toString() : null;
+            bestScore = score;
+            completedDepth = depth;
+            if (bestMove == null || Math.abs(score) > MATE - MAX_PLY) {
+                break;
+            }
+        }
+        return new Result(bestMove, bestScore, completedDepth, nodes, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Оценивает ход, только что сделанный на доске, так же, как поиск глубины depth оценивает ходы из корня:
+     * позиция соперника просчитывается на depth - 1 полуход, а при depth = 1 досчитываются только взятия.
+     * Поэтому оценку сыгранного хода можно сравнивать с оценкой лучшего хода той же глубины
+     * @param colour Цвет стороны, которая сделала ход
+     * @param depth Глубина поиска, которым был найден лучший ход
+     * @return Оценка хода с точки зрения colour
+     */
+    int scoreMadeMove(Colour colour, int depth) {
+        deadline = Long.MAX_VALUE;
+        nodesLimit = Long.MAX_VALUE;
+        nodes = 0;
+        stopped = false;
+        return -search(getOppositeColour(colour), depth - 1, 1, -INFINITY, INFINITY);
+    }
+
+    private boolean isOutOfBudget() {
+        if (nodes >= nodesLimit) {
+            stopped = true;
+        } else if (nodes % BUDGET_CHECK_INTERVAL == 0
+                && (stopSignal.get() || deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    private int search(Colour colour, int depth, int ply, int alpha, int beta) {
+        if (depth <= 0) {
+            return quiescence(colour, ply, alpha, beta, 0);
+        }
+        ++nodes;
+        if (isOutOfBudget()) {
+            return 0;
+        }
+        long key = board.getZobristKey() ^ Zobrist.getSideKey(colour);
+        long entry = table.probe(key);
+        int tableMove = 0;
+        if (entry != 0) {
+            tableMove = TranspositionTable.getMove(entry);
+            if (ply > 0 && TranspositionTable.getDepth(entry) >= depth) {
+                int score = fromTableScore(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER_BOUND && score >= beta
+                        || bound == TranspositionTable.UPPER_BOUND && score <= alpha) {
+                    return score;
+                }
+            }
+        }
+        MoveBuffer moves = buffers[ply];
+        int movesCount = generator.generate(colour, moves);
+        if (movesCount == 0) {
+            return -MATE + ply;
+        }
+        orderMoves(ply, movesCount, tableMove);
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = 0;
+        for (int i = 0; i < movesCount; ++i) {
+            int index = selectNextMove(ply, i, movesCount);
+            board.makeMove(moves, index, undoRecords[ply]);
+            int score = -search(getOppositeColour(colour), depth - 1, ply + 1, -beta, -alpha);
+            board.unmakeMove(undoRecords[ply]);
+            if (stopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = getMoveCode(moves, index);
+                if (ply == 0) {
+                    iterationBestMove.setLength(0);
+                    generator.appendNotation(moves, index, iterationBestMove);
+                }
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                if (!moves.isCapture(index)) {
+                    addKiller(ply, bestMove);
+                }
+                break;
+            }
+        }
+        int bound = bestScore >= beta ? TranspositionTable.LOWER_BOUND
+                : bestScore > originalAlpha ? TranspositionTable.EXACT
+                : TranspositionTable.UPPER_BOUND;
+        table.store(key, toTableScore(bestScore, ply), depth, bound, bestMove);
+        return bestScore;
+    }
+
+    /**
+     * Досчитывает взятия. Позиция без взятий оценивается статически, а если взятие есть, сторона обязана бить,
+     * поэтому перебираются все взятия без статической оценки
+     */
+    private int quiescence(Colour colour, int ply, int alpha, int beta, int quiescencePly) {
+        ++nodes;
+        if (isOutOfBudget()) {
+            return 0;
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluate(colour);
+        }
+        MoveBuffer moves = buffers[ply];
+        int movesCount = generator.generate(colour, moves);
+        if (movesCount == 0) {
+            return -MATE + ply;
+        }
+        if (!moves.isCapture(0) || quiescencePly >= MAX_QUIESCENCE_PLIES) {
+            return evaluate(colour);
+        }
+        orderMoves(ply, movesCount, 0);
+        int bestScore = -INFINITY;
+        for (int i = 0; i < movesCount; ++i) {
+            int index = selectNextMove(ply, i, movesCount);
+            board.makeMove(moves, index, undoRecords[ply]);
+            int score = -quiescence(getOppositeColour(colour), ply + 1, -beta, -alpha, quiescencePly + 1);
+            board.unmakeMove(undoRecords[ply]);
+            if (stopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        return bestScore;
+    }
+
+    /**
+     * Оценивает позицию с точки зрения стороны colour: каждая башня принадлежит цвету верхней шашки, за неё
+     * даётся цена верхней шашки (простая или дамка), цена своих шашек внутри башни и цена пленных шашек соперника.
+     * Простые шашки получают небольшую прибавку за продвижение
+     */
+    private int evaluate(Colour colour) {
+        Bitboard bitboard = board.getBitboard();
+        int score = 0;
+        for (Colour owner : Colour.values()) {
+            int ownerScore = 0;
+            int ownColour = owner == Colour.BLACK ? -1 : 0;
+            for (int squares = bitboard.getOccupied(owner); squares != 0; squares &= squares - 1) {
+                int square = Integer.numberOfTrailingZeros(squares);
+                Tower tower = (Tower) bitboard.getFigure(owner, square);
+                int height = tower.getHeight();
+                if ((tower.getKings() & 1) != 0) {
+                    ownerScore += KING_VALUE;
+                } else {
+                    int rank = Bitboard.getRank(square);
+                    ownerScore += MAN_VALUE + ADVANCE_VALUE * (owner == Colour.WHITE ? rank : 7 - rank);
+                }
+                int inside = (int) ((1L << height) - 2);
+                int own = ~(tower.getColours() ^ ownColour) & inside;
+                ownerScore += Integer.bitCount(own) * OWN_CHECKER_VALUE
+                        + Integer.bitCount(inside & ~own) * PRISONER_VALUE;
+            }
+            score += owner == colour ? ownerScore : -ownerScore;
+        }
+        return score;
+    }
+
+    private void orderMoves(int ply, int movesCount, int tableMove) {
+        if (orders[ply].length < movesCount) {
+            orders[ply] = new int[Math.max(movesCount, orders[ply].length * 2)];
+            orderScores[ply] = new int[orders[ply].length];
+        }
+        MoveBuffer moves = buffers[ply];
+        int[] order = orders[ply];
+        int[] scores = orderScores[ply];
+        int[] plyKillers = killers[ply];
+        for (int i = 0; i < movesCount; ++i) {
+            int code = getMoveCode(moves, i);
+            int score = 0;
+            if (code == tableMove) {
+                score = TABLE_MOVE_ORDER;
+            } else if (moves.isCapture(i)) {
+                score = CAPTURE_ORDER + moves.getStepsCount(i);
+            } else if (code == plyKillers[0]) {
+                score = FIRST_KILLER_ORDER;
+            } else if (code == plyKillers[1]) {
+                score = SECOND_KILLER_ORDER;
+            }
+            order[i] = i;
+            scores[i] = score;
+        }
+    }
+
+    private int selectNextMove(int ply, int position, int movesCount) {
+        int[] order = orders[ply];
+        int[] scores = orderScores[ply];
+        int best = position;
+        for (int i = position + 1; i < movesCount; ++i) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        int index = order[best];
+        order[best] = order[position];
+        scores[best] = scores[position];
+        order[position] = index;
+        return index;
+    }
+
+    private void addKiller(int ply, int move) {
+        int[] plyKillers = killers[ply];
+        if (plyKillers[0] != move) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move;
+        }
+    }
+
+    /**
+     * Код хода для таблицы и ходов-убийц: хеш начальной клетки и всех шагов, 0 означает "нет хода". Ход из таблицы
+     * влияет только на порядок перебора, поэтому редкие совпадения кодов не ломают поиск
+     */
+    private static int getMoveCode(MoveBuffer moves, int index) {
+        int code = moves.getFrom(index) + 1;
+        for (int step = 0; step < moves.getStepsCount(index); ++step) {
+            code = code * 1031 + (moves.getLanding(index, step) << 6 | moves.getCaptured(index, step) + 1);
+        }
+        return code == 0 ? 1 : code;
+    }
+
+    private static int toTableScore(int score, int ply) {
+        if (score > MATE - MAX_PLY) {
+            return score + ply;
+        }
+        if (score < -MATE + MAX_PLY) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int fromTableScore(int score, int ply) {
+        if (score > MATE - MAX_PLY) {
+            return score - ply;
+        }
+        if (score < -MATE + MAX_PLY) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    private static void report(String name, TowersBoard board, long timeLimitMillis) {
+        AlphaBetaSearch search = new AlphaBetaSearch(board, new TranspositionTable(64));
+        Result result = search.search(Colour.WHITE, MAX_PLY - 1, timeLimitMillis, Long.MAX_VALUE);
+        System.out.printf("%s: best %s, score %d, depth %d, %d nodes, %.3f s, %.0f nodes/s%n",
+                name, result.getBestMove(), result.getScore(), result.getDepth(), result.getNodes(),
+                result.getNanos() / 1e9, result.getNodesPerSecond());
+    }
+
+    /**
+     * Ищет ход белых с ограничением по времени из первого аргумента (в миллисекундах) для начальной позиции и для
+     * позиций, которыми заканчиваются партии из остальных аргументов, и печатает скорость поиска
+     */
+    public static void main(String[] args) throws IOException {
+        long timeLimitMillis = Long.parseLong(args[0]);
+        report("start", new TowersBoard(TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS),
+                timeLimitMillis);
+        for (int i = 1; i < args.length; ++i) {
+            TowersBoard board = new TowersBoard(args[i]);
+            try {
+                board.validate();
+            } catch (Board.BusyCellException
+                     | Board.WhiteCellException
+                     | Board.InvalidMoveException
+                     | Board.GeneralErrorException e) {
+                System.out.println(args[i] + ": " + e.getMessage());
+                continue;
+            }
+            report(args[i], board, timeLimitMillis);
+        }
+    }
+}
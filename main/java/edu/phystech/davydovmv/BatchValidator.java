@@ -0,0 +1,361 @@
+package edu.phystech.davydovmv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Пакетная проверка партий: каждая партия лежит в отдельном файле или в корпусе (см. {@link Corpus}), партии
+ * проверяются параллельно в ForkJoinPool, у каждой партии своя доска. Для каждой партии выдаётся вердикт - итоговая
+ * позиция или текст ошибки, как при обычном запуске, а в конце - общее время и скорость проверки.
+ * Если движок упал на партии с исключением, это не выдаётся за ошибку в партии: вердикт начинается с "internal error",
+ * а в итоговой строке отдельно считаются такие партии.
+ * Вердикты не хранятся строками: каждый поток пишет их в свой {@link RenderBuffer} в UTF-8, а вердикт помнит только
+ * границы своих байт, которые при печати отчёта копируются в поток как есть.
+ */
+public class BatchValidator {
+
+    private final int threadsCount;
+
+    /**
+     * Итог проверки одной партии
+     */
+    public static class Verdict {
+        private final String name;
+        private final RenderBuffer buffer;
+        private final int textBegin;
+        private final int textEnd;
+        private final int movesCount;
+        private final boolean internalError;
+
+        Verdict(String name, RenderBuffer buffer, int textBegin, int textEnd, int movesCount, boolean internalError) {
+            this.name = name;
+            this.buffer = buffer;
+            this.textBegin = textBegin;
+            this.textEnd = textEnd;
+            this.movesCount = movesCount;
+            this.internalError = internalError;
+        }
+
+        /**
+         * @return Файл с партией или номер партии в корпусе
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Итоговая позиция или текст ошибки, оканчивающиеся переводом строки
+         */
+        public String getText() {
+            return new String(buffer.bytes, textBegin, textEnd - textBegin, StandardCharsets.UTF_8);
+        }
+
+        void writeText(BatchWriter out) throws IOException {
+            out.appendBytes(buffer.bytes, textBegin, textEnd - textBegin);
+        }
+
+        /**
+         * @return Количество строк с ходами, которые успела выполнить доска
+         */
+        public int getMovesCount() {
+            return movesCount;
+        }
+
+        /**
+         * @return Упал ли движок при проверке партии (тогда текст - "internal error: " и исключение)
+         */
+        public boolean isInternalError() {
+            return internalError;
+        }
+    }
+
+    /**
+     * Растущий массив байт, в который один поток пишет тексты своих вердиктов. Старые байты не перезаписываются,
+     * поэтому вердикт может ссылаться на свой кусок до конца печати отчёта
+     */
+    private static class RenderBuffer extends OutputStream {
+        private static final int INITIAL_CAPACITY = 1 << 12;
+
+        private final BatchWriter writer = new BatchWriter(this, INITIAL_CAPACITY);
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        @Override
+        public void write(int symbol) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) symbol;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        /**
+         * Выбрасывает всё, что записано после size, в том числе не отданное ещё BatchWriter
+         */
+        void rollback(int size) {
+            writer.discard();
+            this.size = size;
+        }
+
+        void appendLine(String text) {
+            byte[] line = (text + '\n').getBytes(StandardCharsets.UTF_8);
+            write(line, 0, line.length);
+        }
+    }
+
+    private interface GameValidator {
+        Verdict validate(int index, RenderBuffer buffer);
+    }
+
+    private static class ValidateAction extends RecursiveAction {
+        private final GameValidator validator;
+        private final ThreadLocal<RenderBuffer> buffers;
+        private final Verdict[] verdicts;
+        private final int begin;
+        private final int end;
+
+        ValidateAction(GameValidator validator, ThreadLocal<RenderBuffer> buffers, Verdict[] verdicts,
+                       int begin, int end) {
+            this.validator = validator;
+            this.buffers = buffers;
+            this.verdicts = verdicts;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin == 1) {
+                verdicts[begin] = validator.validate(begin, buffers.get());
+                return;
+            }
+            int middle = (begin + end) >>> 1;
+            invokeAll(new ValidateAction(validator, buffers, verdicts, begin, middle),
+                    new ValidateAction(validator, buffers, verdicts, middle, end));
+        }
+    }
+
+    /**
+     * @param threadsCount Количество потоков, проверяющих партии
+     */
+    public BatchValidator(int threadsCount) {
+        this.threadsCount = threadsCount;
+    }
+
+    public BatchValidator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static int getFirstGlobSymbol(String pattern) {
+        for (int i = 0; i < pattern.length(); ++i) {
+            char symbol = pattern.charAt(i);
+            if (symbol == '*' || symbol == '?' || symbol == '[' || symbol == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Находит файлы с партиями. Если pattern - каталог, берутся все файлы в нём и его подкаталогах,
+     * иначе pattern считается glob-шаблоном (например, games/*.txt или games/**.txt)
+     * @param pattern Каталог или glob-шаблон
+     * @return Отсортированный список файлов
+     * @throws IOException
+     */
+    public static List<Path> findFiles(String pattern) throws IOException {
+        Path directory;
+        PathMatcher matcher;
+        int firstGlobSymbol = getFirstGlobSymbol(pattern);
+        if (firstGlobSymbol != -1) {
+            int lastSeparator = Math.max(pattern.lastIndexOf('/', firstGlobSymbol),
+                    pattern.lastIndexOf('\\', firstGlobSymbol));
+            directory = Paths.get(lastSeparator == -1 ? "." : pattern.substring(0, lastSeparator + 1));
+            Path fullPattern = lastSeparator == -1 ? directory.resolve(pattern) : Paths.get(pattern);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + fullPattern.normalize());
+        } else {
+            directory = Paths.get(pattern);
+            matcher = path -> true;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(path.normalize()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private interface BoardFactory {
+        Board createBoard() throws IOException;
+    }
+
+    /**
+     * Проверяет партию и дописывает текст вердикта в buffer. Итоговая позиция выводится прямо в буфер
+     * через {@link Board#appendAllFigures}, без промежуточной строки
+     */
+    private static Verdict validateGame(String name, BoardFactory factory, RenderBuffer buffer) {
+        Board board = null;
+        int textBegin = buffer.size;
+        String error;
+        boolean internalError = false;
+        try {
+            board = factory.createBoard();
+            ValidationResult result = board.check();
+            if (result.isOk()) {
+                board.appendAllFigures(buffer.writer);
+                buffer.writer.flush();
+                error = null;
+            } else {
+                error = result.getResult().getMessage();
+            }
+        } catch (Board.GeneralErrorException e) {
+            error = e.getMessage();
+        } catch (IOException e) {
+            error = "io error: " + e.getMessage();
+        } catch (RuntimeException e) {
+            error = "internal error: " + e;
+            internalError = true;
+        }
+        if (error != null) {
+            buffer.rollback(textBegin);
+            buffer.appendLine(error);
+        }
+        return new Verdict(name, buffer, textBegin, buffer.size, board == null ? 0 : board.getMovesCount(),
+                internalError);
+    }
+
+    /**
+     * Проверяет одну партию
+     * @param path Файл с партией
+     * @return Вердикт
+     */
+    public static Verdict validateFile(Path path) {
+        return validateFile(path, new RenderBuffer());
+    }
+
+    private static Verdict validateFile(Path path, RenderBuffer buffer) {
+        return validateGame(path.toString(), () -> new TowersBoard(path.toString()), buffer);
+    }
+
+    private static Verdict validateGame(Corpus corpus, int index, RenderBuffer buffer) {
+        return validateGame("#" + index + " @" + corpus.getGameOffset(index),
+                () -> new TowersBoard(corpus.getGameLines(index)), buffer);
+    }
+
+    /**
+     * Проверяет одну партию из корпуса
+     * @param corpus Корпус
+     * @param index Номер партии
+     * @return Вердикт
+     */
+    public static Verdict validateGame(Corpus corpus, int index) {
+        return validateGame(corpus, index, new RenderBuffer());
+    }
+
+    private Verdict[] validate(int gamesCount, GameValidator validator) {
+        Verdict[] verdicts = new Verdict[gamesCount];
+        if (gamesCount == 0) {
+            return verdicts;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threadsCount);
+        ThreadLocal<RenderBuffer> buffers = ThreadLocal.withInitial(RenderBuffer::new);
+        try {
+            pool.invoke(new ValidateAction(validator, buffers, verdicts, 0, gamesCount));
+        } finally {
+            pool.shutdown();
+        }
+        return verdicts;
+    }
+
+    /**
+     * Проверяет партии из всех файлов параллельно
+     * @param files Файлы с партиями
+     * @return Вердикты в том же порядке, что и файлы
+     */
+    public Verdict[] validate(List<Path> files) {
+        return validate(files.size(), (index, buffer) -> validateFile(files.get(index), buffer));
+    }
+
+    /**
+     * Проверяет все партии корпуса параллельно
+     * @param corpus Корпус
+     * @return Вердикты в том же порядке, что и партии в корпусе
+     */
+    public Verdict[] validate(Corpus corpus) {
+        return validate(corpus.getGamesCount(), (index, buffer) -> validateGame(corpus, index, buffer));
+    }
+
+    /**
+     * Проверяет партии из каталога или по glob-шаблону и печатает вердикты и скорость проверки
+     * @param pattern Каталог или glob-шаблон
+     * @param out Поток, куда печатаются вердикты
+     * @throws IOException
+     */
+    public void run(String pattern, PrintStream out) throws IOException {
+        List<Path> files = findFiles(pattern);
+        long startTime = System.nanoTime();
+        Verdict[] verdicts = validate(files);
+        report(verdicts, System.nanoTime() - startTime, out);
+    }
+
+    /**
+     * Проверяет все партии корпуса и печатает вердикты и скорость проверки. Время включает отображение файла в память
+     * и поиск границ партий
+     * @param path Файл корпуса
+     * @param out Поток, куда печатаются вердикты
+     * @throws IOException
+     */
+    public void runCorpus(Path path, PrintStream out) throws IOException {
+        long startTime = System.nanoTime();
+        Verdict[] verdicts;
+        try (Corpus corpus = new Corpus(path)) {
+            verdicts = validate(corpus);
+        }
+        report(verdicts, System.nanoTime() - startTime, out);
+    }
+
+    /**
+     * Печатает вердикты через {@link BatchWriter}: поток получает их большими кусками, а не по строке на партию
+     */
+    private void report(Verdict[] verdicts, long elapsedTime, PrintStream out) throws IOException {
+        long movesCount = 0;
+        int internalErrorsCount = 0;
+        BatchWriter report = new BatchWriter(out);
+        for (Verdict verdict : verdicts) {
+            movesCount += verdict.getMovesCount();
+            internalErrorsCount += verdict.isInternalError() ? 1 : 0;
+            report.append(verdict.getName()).append(":\n");
+            verdict.writeText(report);
+        }
+        if (internalErrorsCount > 0) {
+            report.append("internal errors: ").append(Integer.toString(internalErrorsCount)).append('\n');
+        }
+        double seconds = Math.max(elapsedTime, 1) / 1e9;
+        report.append(String.format("games: %d, moves: %d, threads: %d, time: %.3f s, %.1f games/s, %.1f moves/s%n",
+                verdicts.length, movesCount, threadsCount, seconds, verdicts.length / seconds, movesCount / seconds));
+        report.flush();
+    }
+}
@@ -0,0 +1,149 @@
+package edu.phystech.davydovmv;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Буфер для вывода большого количества текста, например вердиктов всех партий пакета. Символы сразу кодируются
+ * в UTF-8 в массив байт, который переиспользуется: когда он заполняется, всё его содержимое отдаётся потоку одним
+ * вызовом write. Поэтому на каждую партию не создаются строки, а PrintStream блокируется один раз на буфер,
+ * а не на каждую партию.
+ */
+public class BatchWriter implements Appendable, Flushable {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int size;
+    private char highSurrogate;
+
+    /**
+     * @param out Поток, в который пишется текст
+     * @param capacity Размер буфера в байтах (не меньше 4)
+     */
+    public BatchWriter(OutputStream out, int capacity) {
+        if (capacity < 4) {
+            throw new IllegalArgumentException("capacity must be at least 4: " + capacity);
+        }
+        this.out = out;
+        buffer = new byte[capacity];
+    }
+
+    public BatchWriter(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    private void ensureSpace(int bytesCount) throws IOException {
+        if (size + bytesCount > buffer.length) {
+            out.write(buffer, 0, size);
+            size = 0;
+        }
+    }
+
+    private void appendCodePoint(int codePoint) throws IOException {
+        if (codePoint < 0x80) {
+            ensureSpace(1);
+            buffer[size++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            ensureSpace(2);
+            buffer[size++] = (byte) (0xC0 | codePoint >>> 6);
+            buffer[size++] = (byte) (0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            ensureSpace(3);
+            buffer[size++] = (byte) (0xE0 | codePoint >>> 12);
+            buffer[size++] = (byte) (0x80 | codePoint >>> 6 & 0x3F);
+            buffer[size++] = (byte) (0x80 | codePoint & 0x3F);
+        } else {
+            ensureSpace(4);
+            buffer[size++] = (byte) (0xF0 | codePoint >>> 18);
+            buffer[size++] = (byte) (0x80 | codePoint >>> 12 & 0x3F);
+            buffer[size++] = (byte) (0x80 | codePoint >>> 6 & 0x3F);
+            buffer[size++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+    }
+
+    /**
+     * Дописывает символ. Суррогатная пара записывается, когда пришла её вторая половина, а половина без пары
+     * заменяется на '?'
+     */
+    @Override
+    public BatchWriter append(char symbol) throws IOException {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(symbol)) {
+                appendCodePoint(Character.toCodePoint(high, symbol));
+                return this;
+            }
+            appendCodePoint('?');
+        }
+        if (Character.isHighSurrogate(symbol)) {
+            highSurrogate = symbol;
+        } else if (Character.isLowSurrogate(symbol)) {
+            appendCodePoint('?');
+        } else if (symbol < 0x80 && size < buffer.length) {
+            buffer[size++] = (byte) symbol;
+        } else {
+            appendCodePoint(symbol);
+        }
+        return this;
+    }
+
+    @Override
+    public BatchWriter append(CharSequence text) throws IOException {
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public BatchWriter append(CharSequence text, int start, int end) throws IOException {
+        for (int i = start; i < end; ++i) {
+            append(text.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Дописывает уже закодированные в UTF-8 байты, например текст, подготовленный другим BatchWriter
+     */
+    public BatchWriter appendBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            appendCodePoint('?');
+        }
+        if (length > buffer.length - size) {
+            out.write(buffer, 0, size);
+            size = 0;
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                return this;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Выбрасывает накопленные и ещё не отданные потоку байты
+     */
+    void discard() {
+        size = 0;
+        highSurrogate = 0;
+    }
+
+    /**
+     * Отдаёт накопленные байты потоку и сбрасывает поток
+     */
+    @Override
+    public void flush() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            appendCodePoint('?');
+        }
+        out.write(buffer, 0, size);
+        size = 0;
+        out.flush();
+    }
+}
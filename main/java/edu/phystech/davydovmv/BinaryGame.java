@@ -0,0 +1,358 @@
+package edu.phystech.davydovmv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Компактная двоичная запись партии для хранения. Текстовая запись остаётся основной, двоичная получается из неё
+ * через {@link #encode} и переводится обратно через {@link #decode}.
+ * <p>
+ * Текстовая запись хода повторяет содержимое башни в каждой позиции, но для верной партии оно однозначно
+ * определяется доской. Поэтому в двоичной записи полуход - это только клетки: заголовок (количество шагов, бьёт ли
+ * фигура, цвет верхней шашки ходящей фигуры), начальная клетка и по байту на каждую клетку, куда встаёт фигура
+ * (номер клетки и то, записана ли её буква заглавной). Тихий ход занимает 3 байта, а не 9-20 символов.
+ * Все числа записываются как varint: по 7 бит в байте, старший бит означает, что число продолжается.
+ * <p>
+ * Формат: 4 байта {@link #MAGIC}, расстановка белых и чёрных (количество башен, затем каждая башня: клетка с признаком
+ * заглавной буквы, высота и шашки по 2 бита - цвет и заглавная буква), затем полуходы белых и чёрных по очереди
+ * и 0 в конце. Если последний полуход белых, партия закончилась строкой, где ходят только белые.
+ * При чтении ходы делаются через {@link Board#tryMakeMove(Move, Colour)} без разбора текста: проверяются все
+ * правила, кроме сверки записи башен, которой в двоичной записи нет.
+ */
+public final class BinaryGame {
+
+    /**
+     * Начало двоичной записи: "TWR" и номер версии формата
+     */
+    private static final byte[] MAGIC = {'T', 'W', 'R', 1};
+
+    private static final int CAPTURE_FLAG = 1 << 1;
+    private static final int BLACK_FIGURE_FLAG = 1;
+    private static final int STEPS_SHIFT = 2;
+    private static final int CAPITAL_LETTER_FLAG = 1 << 6;
+    private static final int CAPITAL_LANDING_FLAG = 1 << 5;
+    private static final int END_OF_GAME = 0;
+
+    private BinaryGame() { }
+
+    /**
+     * Итог чтения двоичной записи: результат проверки и доска после неё
+     */
+    public static class Result {
+        private final ValidationResult validation;
+        private final Board board;
+
+        Result(ValidationResult validation, Board board) {
+            this.validation = validation;
+            this.board = board;
+        }
+
+        /**
+         * @return Результат проверки
+         */
+        public ValidationResult getValidation() {
+            return validation;
+        }
+
+        /**
+         * @return Доску после проверки или null, если запись закончилась раньше расстановки
+         */
+        public Board getBoard() {
+            return board;
+        }
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value == -1) {
+            throw new EOFException("unexpected end of game record");
+        }
+        return value;
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            int next = readByte(in);
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupted game record: varint is too long");
+    }
+
+    private static boolean isBlack(char checker) {
+        return checker == 'b' || checker == 'B';
+    }
+
+    private static void writePositions(OutputStream out, CharSequence line, MoveParser parser, Move positions)
+            throws IOException {
+        parser.parsePositions(line, positions);
+        writeVarint(out, positions.size());
+        for (int i = 0; i < positions.size(); ++i) {
+            Move.Position position = positions.getPosition(i);
+            Square square = Square.of(position);
+            out.write(square.getFile() << 3 | square.getRank()
+                    | (Character.isUpperCase(position.charAt(0)) ? CAPITAL_LETTER_FLAG : 0));
+            int height = position.length() - 3;
+            writeVarint(out, height);
+            int bits = 0;
+            for (int j = 0; j < height; ++j) {
+                char checker = position.charAt(3 + j);
+                bits |= ((isBlack(checker) ? 1 : 0) | (Character.isUpperCase(checker) ? 2 : 0)) << (j % 4 * 2);
+                if (j % 4 == 3 || j == height - 1) {
+                    out.write(bits);
+                    bits = 0;
+                }
+            }
+        }
+    }
+
+    private static void writePly(OutputStream out, Move move) throws IOException {
+        Move.Position from = move.getPosition(0);
+        writeVarint(out, (move.size() - 1) << STEPS_SHIFT
+                | (move.isBeating() ? CAPTURE_FLAG : 0)
+                | (isBlack(from.charAt(3)) ? BLACK_FIGURE_FLAG : 0));
+        out.write(from.getSquare());
+        for (int i = 1; i < move.size(); ++i) {
+            Move.Position landing = move.getPosition(i);
+            out.write(landing.getSquare() | (Character.isUpperCase(landing.charAt(0)) ? CAPITAL_LANDING_FLAG : 0));
+        }
+    }
+
+    /**
+     * Источник, который отдаёт строки партии доске и по дороге записывает две строки с расстановкой
+     */
+    private static class PositionsRecorder implements LineSource {
+        private final LineSource source;
+        private final OutputStream out;
+        private final MoveParser parser = new MoveLexer();
+        private final Move positions = new Move();
+        private int linesCount;
+
+        PositionsRecorder(LineSource source, OutputStream out) {
+            this.source = source;
+            this.out = out;
+        }
+
+        @Override
+        public CharSequence readLine() throws IOException {
+            CharSequence line = source.readLine();
+            if (line != null && linesCount < 2) {
+                writePositions(out, line, parser, positions);
+            }
+            ++linesCount;
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    /**
+     * Переводит текстовую запись партии в двоичную. Партия при этом проверяется так же, как {@link Board#check()},
+     * и записывается, только если она верна: записать можно лишь ходы, запись башен в которых совпадает с доской
+     * @param text Текстовая запись партии
+     * @param out Поток для двоичной записи
+     * @return Результат проверки партии
+     * @throws IOException
+     */
+    public static ValidationResult encode(LineSource text, OutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(MAGIC);
+        TowersBoard board = new TowersBoard(new PositionsRecorder(text, bytes));
+        board.setLineListener((current, white, black) -> {
+            writePly(bytes, white);
+            if (black != null) {
+                writePly(bytes, black);
+            }
+        });
+        ValidationResult result = board.check();
+        if (result.isOk()) {
+            bytes.write(END_OF_GAME);
+            bytes.writeTo(out);
+        }
+        return result;
+    }
+
+    private static void readMagic(InputStream in) throws IOException {
+        for (byte expected: MAGIC) {
+            if (readByte(in) != expected) {
+                throw new IOException("not a game record");
+            }
+        }
+    }
+
+    private static void appendPositions(InputStream in, StringBuilder line) throws IOException {
+        int count = readVarint(in);
+        for (int i = 0; i < count; ++i) {
+            int code = readByte(in);
+            if (i > 0) {
+                line.append(' ');
+            }
+            Square square = Square.of(code >>> 3 & 7, code & 7);
+            int height = readVarint(in);
+            if (height == 0 || height > Zobrist.MAX_HEIGHT) {
+                throw new IOException("corrupted game record");
+            }
+            line.append(square.getName((code & CAPITAL_LETTER_FLAG) != 0)).append('_');
+            int bits = 0;
+            for (int j = 0; j < height; ++j) {
+                if (j % 4 == 0) {
+                    bits = readByte(in);
+                }
+                int checker = bits >>> (j % 4 * 2);
+                line.append(Tower.getChecker((checker & 1) != 0, (checker & 2) != 0));
+            }
+        }
+    }
+
+    /**
+     * Читает полуход в move
+     * @return false, если партия закончилась
+     */
+    private static boolean readPly(InputStream in, Move move) throws IOException {
+        int header = readVarint(in);
+        if (header == END_OF_GAME) {
+            return false;
+        }
+        int stepsCount = header >>> STEPS_SHIFT;
+        int from = readByte(in);
+        if (stepsCount == 0 || from >= Bitboard.SQUARES_COUNT) {
+            throw new IOException("corrupted game record");
+        }
+        move.clear();
+        move.setBeating((header & CAPTURE_FLAG) != 0);
+        move.setFigureColour((header & BLACK_FIGURE_FLAG) != 0 ? Colour.BLACK : Colour.WHITE);
+        move.addSquare(Square.of(from), false);
+        for (int i = 0; i < stepsCount; ++i) {
+            int landing = readByte(in);
+            if ((landing & ~(CAPITAL_LANDING_FLAG | Bitboard.SQUARES_COUNT - 1)) != 0) {
+                throw new IOException("corrupted game record");
+            }
+            move.addSquare(Square.of(landing & Bitboard.SQUARES_COUNT - 1), (landing & CAPITAL_LANDING_FLAG) != 0);
+        }
+        return true;
+    }
+
+    /**
+     * Дописывает текстовую запись сделанного полухода. Запись башни до хода взята до хода, а шашки, взятые за ход,
+     * лежат в самом низу башни после хода
+     * @param before Запись ходившей фигуры до хода
+     * @param after Запись ходившей фигуры после хода
+     */
+    private static void appendPly(Appendable text, Move move, CharSequence before, CharSequence after)
+            throws IOException {
+        text.append(before);
+        int capturedStart = after.length() - (move.isBeating() ? move.size() - 1 : 0);
+        for (int i = 1; i < move.size(); ++i) {
+            text.append(move.isBeating() ? ':' : '-')
+                    .append(move.getPosition(i))
+                    .append(before, 2, before.length());
+            if (move.isBeating()) {
+                text.append(after, capturedStart, capturedStart + i);
+            }
+        }
+    }
+
+    /**
+     * Делает полуход на доске и, если text не null, дописывает его текстовую запись
+     */
+    private static MoveResult playPly(Board board, Move move, Colour colour, Appendable text, StringBuilder before)
+            throws IOException {
+        Move.Position from = move.getPosition(0);
+        Figure figure = board.getBitboard().getFigure(move.getFigureColour(), from.getSquare());
+        before.setLength(0);
+        if (figure != null) {
+            before.append(figure.getFullPosition());
+        }
+        MoveResult result = board.tryMakeMove(move, colour);
+        if (result == MoveResult.OK && text != null) {
+            appendPly(text, move, before, figure.getFullPosition());
+        }
+        return result;
+    }
+
+    private static Result play(InputStream in, Appendable text) throws IOException {
+        readMagic(in);
+        StringBuilder whitePositions = new StringBuilder();
+        StringBuilder blackPositions = new StringBuilder();
+        appendPositions(in, whitePositions);
+        appendPositions(in, blackPositions);
+        if (text != null) {
+            text.append(whitePositions).append('\n').append(blackPositions).append('\n');
+        }
+        TowersBoard board = new TowersBoard(whitePositions.toString(), blackPositions.toString());
+        Move white = new Move();
+        Move black = new Move();
+        StringBuilder before = new StringBuilder();
+        int movesCount = 0;
+        while (readPly(in, white)) {
+            ++movesCount;
+            MoveResult result = playPly(board, white, Colour.WHITE, text, before);
+            if (result != MoveResult.OK) {
+                return new Result(new ValidationResult(result, movesCount, Colour.WHITE, white.toString()), board);
+            }
+            if (!readPly(in, black)) {
+                if (text != null) {
+                    text.append('\n');
+                }
+                if (board.hasFigures(Colour.BLACK)) {
+                    return new Result(new ValidationResult(MoveResult.GENERAL_ERROR, movesCount, null,
+                            white.toString()), board);
+                }
+                return new Result(new ValidationResult(MoveResult.OK, 0, null, null), board);
+            }
+            if (text != null) {
+                text.append(' ');
+            }
+            result = playPly(board, black, Colour.BLACK, text, before);
+            if (result != MoveResult.OK) {
+                return new Result(new ValidationResult(result, movesCount, Colour.BLACK, black.toString()), board);
+            }
+            if (text != null) {
+                text.append('\n');
+            }
+        }
+        MoveResult result = board.hasFigures(Colour.WHITE) || board.hasFigures(Colour.BLACK)
+                ? MoveResult.OK : MoveResult.GENERAL_ERROR;
+        return new Result(new ValidationResult(result, result == MoveResult.OK ? 0 : movesCount, null, null), board);
+    }
+
+    /**
+     * Проверяет партию из двоичной записи: ходы делаются сразу по клеткам, без разбора текста
+     * @param in Двоичная запись партии
+     * @return Результат проверки и доску после неё
+     * @throws IOException Если запись повреждена
+     */
+    public static Result check(InputStream in) throws IOException {
+        return play(in, null);
+    }
+
+    /**
+     * Переводит двоичную запись партии в текстовую: расстановка и по строке на каждую пару полуходов, как в файле
+     * партии. Записи башен восстанавливаются по доске, поэтому для партии, полученной через {@link #encode},
+     * текст совпадает с исходным (с точностью до пробелов между башнями в расстановке)
+     * @param in Двоичная запись партии
+     * @param text Куда дописывается текстовая запись
+     * @return Результат проверки партии
+     * @throws IOException Если запись повреждена
+     */
+    public static ValidationResult decode(InputStream in, Appendable text) throws IOException {
+        return play(in, text).getValidation();
+    }
+}
@@ -0,0 +1,373 @@
+package edu.phystech.davydovmv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Битовое представление доски. Каждой из 32 чёрных клеток соответствует свой бит (a1 - нулевой бит, h8 - 31-й),
+ * для каждого цвета хранится маска клеток, на которых стоит фигура с верхней шашкой этого цвета. Сами фигуры лежат
+ * в массиве, индексированном номером клетки и цветом верхней шашки: index = номер клетки + 32 * номер цвета.
+ * Пустая башня (у которой забрали последнюю шашку) клетку не занимает.
+ * Если на одной клетке оказалось несколько фигур с верхней шашкой одного цвета, в массиве лежит та, которая была
+ * поставлена на доску раньше, а остальные ждут своей очереди в списке overflow. В overflow же лежат фигуры, которые
+ * начальная расстановка поставила на белые клетки (номер клетки -1): своих битов у белых клеток нет, а ходить с них
+ * нельзя, поэтому такие фигуры остаются в списке до конца партии.
+ * Доска запоминает маску клеток, которые менялись с последнего вызова {@link #takeChangedSquares()}, чтобы
+ * пересчитывать производные данные (например, какие фигуры обязаны бить) только для затронутых клеток.
+ * Для каждой клетки и каждого из 4 диагональных направлений заранее посчитаны соседняя клетка, клетка за ней
+ * (куда встаёт бьющая шашка) и весь луч до края доски, поэтому ходить по диагоналям можно без арифметики
+ * над записью клеток.
+ */
+public class Bitboard {
+
+    public static final int SQUARES_COUNT = 32;
+
+    private static final Colour[] COLOURS = Colour.values();
+
+    /**
+     * Количество диагональных направлений. Направление direction сдвигает горизонталь на FILE_STEPS[direction],
+     * а вертикаль на RANK_STEPS[direction]
+     */
+    public static final int DIRECTIONS_COUNT = 4;
+
+    private static final int[] FILE_STEPS = {1, 1, -1, -1};
+    private static final int[] RANK_STEPS = {1, -1, 1, -1};
+
+    private static final int[] NEIGHBOURS = new int[SQUARES_COUNT * DIRECTIONS_COUNT];
+    private static final int[] JUMPS = new int[SQUARES_COUNT * DIRECTIONS_COUNT];
+    private static final int[][] RAYS = new int[SQUARES_COUNT * DIRECTIONS_COUNT][];
+    private static final int[] DIAGONALS = new int[SQUARES_COUNT];
+
+    static {
+        for (int square = 0; square < SQUARES_COUNT; ++square) {
+            DIAGONALS[square] = 1 << square;
+            for (int direction = 0; direction < DIRECTIONS_COUNT; ++direction) {
+                int length = 0;
+                while (getSquare(getFile(square) + FILE_STEPS[direction] * (length + 1),
+                        getRank(square) + RANK_STEPS[direction] * (length + 1)) != -1) {
+                    ++length;
+                }
+                int[] ray = new int[length];
+                for (int i = 0; i < length; ++i) {
+                    ray[i] = getSquare(getFile(square) + FILE_STEPS[direction] * (i + 1),
+                            getRank(square) + RANK_STEPS[direction] * (i + 1));
+                    DIAGONALS[square] |= 1 << ray[i];
+                }
+                int index = square * DIRECTIONS_COUNT + direction;
+                RAYS[index] = ray;
+                NEIGHBOURS[index] = length > 0 ? ray[0] : -1;
+                JUMPS[index] = length > 1 ? ray[1] : -1;
+            }
+        }
+    }
+
+    private final int[] occupied = new int[COLOURS.length];
+    private final Figure[] figures = new Figure[SQUARES_COUNT * COLOURS.length];
+    private final ArrayList<Figure> overflow = new ArrayList<>();
+    private int figuresCount = 0;
+    private int changedSquares = -1;
+
+    public Bitboard() { }
+
+    /**
+     * Создаёт копию доски other, в которой стоят копии фигур. Копии должны сохранять порядковые номера фигур
+     * @param other Копируемая доска
+     * @param figureCopies Копии всех фигур доски other
+     */
+    public Bitboard(Bitboard other, Iterable<Figure> figureCopies) {
+        figuresCount = other.figuresCount;
+        for (var figure: figureCopies) {
+            put(figure.getSquare(), figure);
+        }
+    }
+
+    /**
+     * Снимает с доски все фигуры, но не сбрасывает счётчик порядковых номеров: после этого фигуры можно снова
+     * расставить через {@link #put}. Изменёнными считаются все клетки
+     */
+    public void clear() {
+        Arrays.fill(occupied, 0);
+        Arrays.fill(figures, null);
+        overflow.clear();
+        changedSquares = -1;
+    }
+
+    /**
+     * Возвращает номер клетки по её горизонтали и вертикали.
+     * @param file Горизонталь (0 - a, 7 - h)
+     * @param rank Вертикаль (0 - 1, 7 - 8)
+     * @return Номер клетки или -1, если клетка белая или находится вне доски
+     */
+    public static int getSquare(int file, int rank) {
+        if (file < 0 || file > 7 || rank < 0 || rank > 7 || (file + rank) % 2 != 0) {
+            return -1;
+        }
+        return rank * 4 + file / 2;
+    }
+
+    /**
+     * Возвращает номер клетки по её записи. Учитываются только первые 2 символа записи, регистр буквы не важен.
+     * @param position Запись позиции (например, c3 или C3_wb)
+     * @return Номер клетки или -1, если клетка белая
+     */
+    public static int getSquare(CharSequence position) {
+        return getSquare(Character.toLowerCase(position.charAt(0)) - 'a', position.charAt(1) - '1');
+    }
+
+    /**
+     * @param square Номер клетки
+     * @return Горизонталь клетки (0 - a, 7 - h)
+     */
+    public static int getFile(int square) {
+        return (square % 4) * 2 + getRank(square) % 2;
+    }
+
+    /**
+     * @param square Номер клетки
+     * @return Вертикаль клетки (0 - 1, 7 - 8)
+     */
+    public static int getRank(int square) {
+        return square / 4;
+    }
+
+    /**
+     * @param colour Цвет верхней шашки
+     * @param square Номер клетки
+     * @return Индекс фигуры с верхней шашкой цвета colour, стоящей на клетке square
+     */
+    public static int getIndex(Colour colour, int square) {
+        return colour.ordinal() * SQUARES_COUNT + square;
+    }
+
+    /**
+     * @param square Номер клетки
+     * @param direction Направление (от 0 до DIRECTIONS_COUNT - 1)
+     * @return Номер соседней по диагонали клетки или -1, если клетка square у края доски
+     */
+    public static int getNeighbour(int square, int direction) {
+        return NEIGHBOURS[square * DIRECTIONS_COUNT + direction];
+    }
+
+    /**
+     * @param square Номер клетки
+     * @param direction Направление (от 0 до DIRECTIONS_COUNT - 1)
+     * @return Номер клетки через одну по диагонали (куда встаёт шашка, бьющая соседнюю) или -1, если её нет
+     */
+    public static int getJump(int square, int direction) {
+        return JUMPS[square * DIRECTIONS_COUNT + direction];
+    }
+
+    /**
+     * @param square Номер клетки
+     * @param direction Направление (от 0 до DIRECTIONS_COUNT - 1)
+     * @return Клетки диагонали от соседней с square до края доски по порядку. Массив общий, менять его нельзя
+     */
+    public static int[] getRay(int square, int direction) {
+        return RAYS[square * DIRECTIONS_COUNT + direction];
+    }
+
+    /**
+     * Возвращает направление от одной клетки к другой. Если горизонтали (вертикали) клеток совпадают, считается,
+     * что горизонталь (вертикаль) уменьшается
+     * @param from Номер начальной клетки
+     * @param to Номер конечной клетки
+     * @return Направление (от 0 до DIRECTIONS_COUNT - 1)
+     */
+    public static int getDirection(int from, int to) {
+        return (getFile(from) < getFile(to) ? 0 : 2) + (getRank(from) < getRank(to) ? 0 : 1);
+    }
+
+    /**
+     * @param square Номер клетки
+     * @return Маска клеток, лежащих на одной диагонали с клеткой square, включая её саму
+     */
+    public static int getDiagonals(int square) {
+        return DIAGONALS[square];
+    }
+
+    /**
+     * Возвращает маску клеток, на которых что-то менялось с прошлого вызова, и сбрасывает её. Сразу после создания
+     * доски изменёнными считаются все клетки
+     * @return Маска изменённых клеток
+     */
+    public int takeChangedSquares() {
+        int squares = changedSquares;
+        changedSquares = 0;
+        return squares;
+    }
+
+    /**
+     * Помечает клетку изменённой, если у стоящей на ней фигуры поменялось что-то, кроме верхней шашки
+     * (например, фигуру разблокировали после взятия)
+     * @param square Номер клетки
+     */
+    public void touch(int square) {
+        if (square != -1) {
+            changedSquares |= 1 << square;
+        }
+    }
+
+    /**
+     * @param colour Цвет
+     * @return Маска клеток, на которых стоят фигуры с верхней шашкой цвета colour
+     */
+    public int getOccupied(Colour colour) {
+        return occupied[colour.ordinal()];
+    }
+
+    /**
+     * @return Маска всех занятых клеток
+     */
+    public int getOccupied() {
+        return occupied[Colour.WHITE.ordinal()] | occupied[Colour.BLACK.ordinal()];
+    }
+
+    /**
+     * @param square Номер клетки
+     * @return Занята ли клетка фигурой любого цвета
+     */
+    public boolean isOccupied(int square) {
+        return (getOccupied() & (1 << square)) != 0;
+    }
+
+    /**
+     * @param colour Цвет верхней шашки
+     * @param square Номер клетки
+     * @return Стоит ли на клетке фигура с верхней шашкой цвета colour
+     */
+    public boolean isOccupied(Colour colour, int square) {
+        return (occupied[colour.ordinal()] & (1 << square)) != 0;
+    }
+
+    /**
+     * @param index Индекс фигуры (см. {@link #getIndex(Colour, int)})
+     * @return Фигуру с данным индексом или null, если её нет
+     */
+    public Figure getFigure(int index) {
+        return figures[index];
+    }
+
+    /**
+     * @param colour Цвет верхней шашки
+     * @param square Номер клетки
+     * @return Фигуру с верхней шашкой цвета colour на клетке square или null, если её нет
+     */
+    public Figure getFigure(Colour colour, int square) {
+        return figures[getIndex(colour, square)];
+    }
+
+    /**
+     * @return Фигуры, которые стоят на одной клетке с более ранней фигурой того же цвета, и фигуры на белых клетках
+     * (обычно список пуст)
+     */
+    public List<Figure> getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Ставит на клетку новую фигуру и запоминает порядок, в котором фигуры ставились на доску.
+     * @param square Номер клетки
+     * @param figure Фигура
+     */
+    public void add(int square, Figure figure) {
+        figure.setOrdinal(figuresCount++);
+        put(square, figure);
+    }
+
+    /**
+     * Ставит фигуру на клетку. Пустая фигура на доску не ставится, фигура на белой клетке попадает в overflow.
+     * @param square Номер клетки или -1 для белой клетки
+     * @param figure Фигура
+     */
+    public void put(int square, Figure figure) {
+        touch(square);
+        Colour colour = figure.getTopColour();
+        if (colour == null) {
+            return;
+        }
+        if (square == -1) {
+            overflow.add(figure);
+            return;
+        }
+        int index = getIndex(colour, square);
+        Figure previous = figures[index];
+        if (previous == null) {
+            figures[index] = figure;
+            occupied[colour.ordinal()] |= 1 << square;
+        } else if (previous.getOrdinal() < figure.getOrdinal()) {
+            overflow.add(figure);
+        } else {
+            figures[index] = figure;
+            overflow.add(previous);
+        }
+    }
+
+    /**
+     * Убирает фигуру с клетки, если она там стоит.
+     * @param square Номер клетки или -1 для белой клетки
+     * @param figure Фигура, которую нужно убрать
+     */
+    public void remove(int square, Figure figure) {
+        touch(square);
+        if (removeFromOverflow(figure) || square == -1) {
+            return;
+        }
+        for (var colour: COLOURS) {
+            int index = getIndex(colour, square);
+            if (figures[index] == figure) {
+                figures[index] = null;
+                occupied[colour.ordinal()] &= ~(1 << square);
+                if (!overflow.isEmpty()) {
+                    putFirstFromOverflow(colour, square);
+                }
+            }
+        }
+    }
+
+    private void putFirstFromOverflow(Colour colour, int square) {
+        Figure first = null;
+        for (var figure: overflow) {
+            if (figure.getTopColour() == colour
+                    && figure.getSquare() == square
+                    && (first == null || figure.getOrdinal() < first.getOrdinal())) {
+                first = figure;
+            }
+        }
+        if (first != null) {
+            removeFromOverflow(first);
+            put(square, first);
+        }
+    }
+
+    private boolean removeFromOverflow(Figure figure) {
+        for (int i = 0; i < overflow.size(); ++i) {
+            if (overflow.get(i) == figure) {
+                overflow.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Переставляет фигуру с одной клетки на другую.
+     * @param figure Фигура
+     * @param from Номер начальной клетки
+     * @param to Номер конечной клетки
+     */
+    public void move(Figure figure, int from, int to) {
+        remove(from, figure);
+        put(to, figure);
+    }
+
+    /**
+     * Перекладывает фигуру после того, как у неё поменялась верхняя шашка.
+     * @param square Номер клетки
+     * @param figure Фигура
+     */
+    public void update(int square, Figure figure) {
+        remove(square, figure);
+        put(square, figure);
+    }
+}
@@ -0,0 +1,330 @@
+package edu.phystech.davydovmv;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Поиск ошибок в сыгранных партиях. Партия переигрывается через {@link Board#makeMoves}, и перед каждым полуходом
+ * позиция просчитывается на фиксированную глубину ({@link AlphaBetaSearch}). Для каждого полухода печатается лучший
+ * ход с его оценкой, оценка сыгранного хода и разница между ними; полуходы с разницей не меньше порога помечаются
+ * '?'. Сыгранный ход оценивается на той же глубине, что и лучший (см. {@link AlphaBetaSearch#scoreMadeMove}),
+ * иначе разница зависела бы от чётности глубины.
+ * Партии обрабатываются конвейером: поток-читатель кладёт партии в очередь ограниченного размера, рабочие потоки
+ * разбирают их и кладут текст разбора во вторую ограниченную очередь, а вызывающий поток печатает разборы по мере
+ * готовности. Когда очередь заполнена, поток, который в неё пишет, ждёт, поэтому память не зависит от размера корпуса.
+ * Разборы печатаются в порядке готовности, а не в порядке партий. Если движок упал на партии с исключением, это
+ * не выдаётся за ошибку в партии: печатается "internal error", а в итоговой строке такие партии считаются отдельно.
+ */
+public class BlunderScanner {
+
+    private static final int TABLE_SIZE_MEGABYTES = 16;
+
+    private final int threadsCount;
+    private final int depth;
+    private final int blunderThreshold;
+    private final int queueCapacity;
+
+    private interface LinesOpener {
+        LineSource open() throws IOException;
+    }
+
+    private static class Game {
+        private final String name;
+        private final LinesOpener opener;
+
+        Game(String name, LinesOpener opener) {
+            this.name = name;
+            this.opener = opener;
+        }
+    }
+
+    private static final Game END_OF_GAMES = new Game(null, null);
+
+    /**
+     * Разбор одной партии
+     */
+    public static class Annotation {
+        private final String text;
+        private final int pliesCount;
+        private final int blundersCount;
+        private final boolean internalError;
+
+        Annotation(String text, int pliesCount, int blundersCount, boolean internalError) {
+            this.text = text;
+            this.pliesCount = pliesCount;
+            this.blundersCount = blundersCount;
+            this.internalError = internalError;
+        }
+
+        /**
+         * @return Строки разбора, по одной на полуход, и строка с ошибкой, если партия записана неверно
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return Количество разобранных полуходов
+         */
+        public int getPliesCount() {
+            return pliesCount;
+        }
+
+        /**
+         * @return Количество полуходов, помеченных как ошибки
+         */
+        public int getBlundersCount() {
+            return blundersCount;
+        }
+
+        /**
+         * @return Упал ли движок при разборе партии (тогда последняя строка - "internal error: " и исключение)
+         */
+        public boolean isInternalError() {
+            return internalError;
+        }
+    }
+
+    /**
+     * Разбирает партии одну за другой, переиспользуя поиск и таблицу транспозиций. У каждого рабочего потока
+     * свой Annotator
+     */
+    private class Annotator {
+        private final AlphaBetaSearch search;
+        private final StringBuilder text = new StringBuilder();
+        private String name;
+        private int pliesCount;
+        private int blundersCount;
+
+        Annotator() {
+            TowersBoard emptyBoard = new TowersBoard("", "");
+            search = new AlphaBetaSearch(emptyBoard, new TranspositionTable(TABLE_SIZE_MEGABYTES));
+        }
+
+        /**
+         * Ищет лучший ход в позиции, делает сыгранный ход, оценивает его на той же глубине и дописывает строку
+         * для полухода
+         */
+        private MoveResult playMove(TowersBoard position, String label, String move, Colour colour) {
+            AlphaBetaSearch.Result result = search.search(colour, depth, Long.MAX_VALUE, Long.MAX_VALUE);
+            MoveResult moveResult = position.tryMakeMove(move, colour);
+            if (moveResult != MoveResult.OK) {
+                return moveResult;
+            }
+            int bestScore = result.getScore();
+            int playedScore = search.scoreMadeMove(colour, result.getDepth() > 0 ? result.getDepth() : depth);
+            int delta = bestScore - playedScore;
+            text.append(name).append(' ').append(label).append(' ').append(move)
+                    .append(" best ").append(result.getBestMove()).append(' ').append(bestScore)
+                    .append(" played ").append(playedScore)
+                    .append(" delta ").append(delta);
+            if (delta >= blunderThreshold) {
+                text.append(" ?");
+                ++blundersCount;
+            }
+            text.append('\n');
+            ++pliesCount;
+            return MoveResult.OK;
+        }
+
+        /**
+         * Разбирает партию. Позиция до каждой строки ходов проверяется доской, которая переигрывает партию через
+         * makeMoves, а поиск идёт на второй доске, которая отстаёт на строку и делает ходы по одному
+         */
+        Annotation annotate(String gameName, LinesOpener opener) {
+            name = gameName;
+            text.setLength(0);
+            pliesCount = 0;
+            blundersCount = 0;
+            try (LineSource lines = opener.open()) {
+                CharSequence whitePositions = lines.readLine();
+                String white = whitePositions == null ? null : whitePositions.toString();
+                CharSequence blackPositions = white == null ? null : lines.readLine();
+                if (blackPositions == null) {
+                    text.append(name).append(' ').append(MoveResult.GENERAL_ERROR.getMessage()).append('\n');
+                    return new Annotation(text.toString(), pliesCount, blundersCount, false);
+                }
+                TowersBoard board = new TowersBoard(white, blackPositions.toString());
+                TowersBoard position = new TowersBoard(board);
+                search.setBoard(position);
+                MoveResult result = MoveResult.OK;
+                int lineNumber = 0;
+                for (CharSequence line = lines.readLine(); line != null; line = lines.readLine()) {
+                    result = board.tryMakeMoves(line);
+                    if (result != MoveResult.OK) {
+                        break;
+                    }
+                    ++lineNumber;
+                    String[] moves = line.toString().trim().split("\\s+");
+                    result = playMove(position, lineNumber + ".", moves[0], Colour.WHITE);
+                    if (result == MoveResult.OK && moves.length > 1) {
+                        result = playMove(position, lineNumber + "...", moves[1], Colour.BLACK);
+                    }
+                    if (result != MoveResult.OK) {
+                        break;
+                    }
+                }
+                if (result != MoveResult.OK) {
+                    text.append(name).append(' ').append(result.getMessage()).append('\n');
+                }
+            } catch (IOException e) {
+                text.append(name).append(" io error: ").append(e.getMessage()).append('\n');
+            } catch (RuntimeException e) {
+                text.append(name).append(" internal error: ").append(e).append('\n');
+                return new Annotation(text.toString(), pliesCount, blundersCount, true);
+            }
+            return new Annotation(text.toString(), pliesCount, blundersCount, false);
+        }
+    }
+
+    /**
+     * @param threadsCount Количество рабочих потоков
+     * @param depth Глубина просчёта каждой позиции в полуходах
+     * @param blunderThreshold Разница оценок, начиная с которой полуход считается ошибкой
+     * @param queueCapacity Размер очередей партий и разборов
+     */
+    public BlunderScanner(int threadsCount, int depth, int blunderThreshold, int queueCapacity) {
+        if (threadsCount < 1 || depth < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("threads count, depth and queue capacity must be positive");
+        }
+        this.threadsCount = threadsCount;
+        this.depth = depth;
+        this.blunderThreshold = blunderThreshold;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Разбирает одну партию в вызывающем потоке
+     * @param path Файл с партией
+     * @return Разбор
+     */
+    public Annotation annotateFile(Path path) {
+        return new Annotator().annotate(path.toString(), () -> openFile(path));
+    }
+
+    /**
+     * Партия читается из файла по строке, как в {@link Board}, а не загружается целиком
+     */
+    private static LineSource openFile(Path path) throws IOException {
+        return new LineReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    private void produce(int gamesCount, IntFunction<Game> games, BlockingQueue<Game> queue)
+            throws InterruptedException {
+        for (int i = 0; i < gamesCount; ++i) {
+            queue.put(games.apply(i));
+        }
+        for (int i = 0; i < threadsCount; ++i) {
+            queue.put(END_OF_GAMES);
+        }
+    }
+
+    private void work(BlockingQueue<Game> games, BlockingQueue<Annotation> annotations)
+            throws InterruptedException {
+        Annotator annotator = new Annotator();
+        for (Game game = games.take(); game != END_OF_GAMES; game = games.take()) {
+            annotations.put(annotator.annotate(game.name, game.opener));
+        }
+    }
+
+    private static Thread startThread(String name, InterruptibleTask task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private interface InterruptibleTask {
+        void run() throws InterruptedException;
+    }
+
+    private void scan(int gamesCount, IntFunction<Game> games, PrintStream out) throws InterruptedException {
+        long startTime = System.nanoTime();
+        BlockingQueue<Game> gameQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Annotation> annotationQueue = new ArrayBlockingQueue<>(queueCapacity);
+        Thread[] threads = new Thread[threadsCount + 1];
+        threads[0] = startThread("blunder-scan-reader", () -> produce(gamesCount, games, gameQueue));
+        for (int i = 1; i <= threadsCount; ++i) {
+            threads[i] = startThread("blunder-scan-worker-" + i, () -> work(gameQueue, annotationQueue));
+        }
+        long pliesCount = 0;
+        long blundersCount = 0;
+        int internalErrorsCount = 0;
+        try {
+            for (int i = 0; i < gamesCount; ++i) {
+                Annotation annotation = annotationQueue.take();
+                pliesCount += annotation.getPliesCount();
+                blundersCount += annotation.getBlundersCount();
+                internalErrorsCount += annotation.isInternalError() ? 1 : 0;
+                out.print(annotation.getText());
+            }
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+        if (internalErrorsCount > 0) {
+            out.println("internal errors: " + internalErrorsCount);
+        }
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+        out.printf("games: %d, plies: %d, blunders: %d, threads: %d, depth: %d, time: %.3f s, %.1f plies/s%n",
+                gamesCount, pliesCount, blundersCount, threadsCount, depth, seconds, pliesCount / seconds);
+    }
+
+    /**
+     * Разбирает партии из каталога или по glob-шаблону (см. {@link BatchValidator#findFiles})
+     * @param pattern Каталог или glob-шаблон
+     * @param out Поток, куда печатаются разборы
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run(String pattern, PrintStream out) throws IOException, InterruptedException {
+        List<Path> files = BatchValidator.findFiles(pattern);
+        scan(files.size(), index -> new Game(files.get(index).toString(), () -> openFile(files.get(index))), out);
+    }
+
+    /**
+     * Разбирает все партии корпуса (см. {@link Corpus})
+     * @param path Файл корпуса
+     * @param out Поток, куда печатаются разборы
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void runCorpus(Path path, PrintStream out) throws IOException, InterruptedException {
+        try (Corpus corpus = new Corpus(path)) {
+            scan(corpus.getGamesCount(), index -> new Game("#" + index + " @" + corpus.getGameOffset(index),
+                    () -> corpus.getGameLines(index)), out);
+        }
+    }
+
+    /**
+     * Аргументы: каталог, glob-шаблон или файл корпуса; глубина (по умолчанию 4); порог ошибки (по умолчанию 100);
+     * количество потоков (по умолчанию - количество процессоров)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int blunderThreshold = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int threadsCount = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        BlunderScanner scanner = new BlunderScanner(threadsCount, depth, blunderThreshold, threadsCount * 4);
+        Path path = Paths.get(args[0]);
+        if (Files.isRegularFile(path)) {
+            scanner.runCorpus(path, System.out);
+        } else {
+            scanner.run(args[0], System.out);
+        }
+    }
+}
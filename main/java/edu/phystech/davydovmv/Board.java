@@ -1,16 +1,19 @@
 package edu.phystech.davydovmv;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public abstract class Board {
@@ -51,100 +54,294 @@ public abstract class Board {
         }
     }
 
+    /**
+     * Бросает исключение, соответствующее результату проверки. Ходы проверяются без исключений
+     * (см. {@link MoveResult}), а исключения создаются только в публичных методах, которые их объявляют
+     */
+    private static void throwIfError(MoveResult result) throws
+            BusyCellException,
+            WhiteCellException,
+            InvalidMoveException,
+            GeneralErrorException {
+        switch (result) {
+            case OK:
+                return;
+            case BUSY_CELL:
+                throw new BusyCellException(result.getMessage());
+            case WHITE_CELL:
+                throw new WhiteCellException(result.getMessage());
+            case INVALID_MOVE:
+                throw new InvalidMoveException(result.getMessage());
+            default:
+                throw new GeneralErrorException(result.getMessage());
+        }
+    }
 
-    private ArrayList<Figure> board;
-    private List<String> movesAndTurns;
-    private boolean gameEnded = false;
+    /**
+     * Снимок позиции доски (см. {@link #snapshot()}). Снимок неизменяем и хранит только ссылки на неизменяемые
+     * состояния фигур, которые делятся между снимками, пока фигура не меняется, поэтому снимок после каждого хода
+     * стоит массива ссылок и состояний нескольких изменившихся фигур, а не копии каждой башни
+     */
+    public static final class Snapshot {
+        private final Board board;
+        private final Figure.State[] figures;
+        private final Figure[] lockedFigures;
+        private final int movesCount;
+        private final long zobristKey;
+        private final boolean gameEnded;
+
+        private Snapshot(Board board) {
+            this.board = board;
+            figures = new Figure.State[board.board.size()];
+            for (int i = 0; i < figures.length; ++i) {
+                figures[i] = board.board.get(i).getState();
+            }
+            lockedFigures = board.lockedFigures.isEmpty()
+                    ? NO_FIGURES
+                    : board.lockedFigures.toArray(NO_FIGURES);
+            movesCount = board.movesCount;
+            zobristKey = board.zobristKey;
+            gameEnded = board.gameEnded;
+        }
+
+        /**
+         * @return Количество строк с ходами, которые доска начала выполнять к моменту снимка
+         */
+        public int getMovesCount() {
+            return movesCount;
+        }
+
+        /**
+         * @return Ключ Зобриста позиции в снимке
+         */
+        public long getZobristKey() {
+            return zobristKey;
+        }
+
+        /**
+         * @return Закончилась ли игра к моменту снимка
+         */
+        public boolean isGameEnded() {
+            return gameEnded;
+        }
+    }
+
+    private static final Figure[] NO_FIGURES = new Figure[0];
+
+    /**
+     * Получает управление после каждой верно сделанной строки с ходами при проверке через {@link #check()},
+     * например чтобы записать контрольную точку (см. {@link CheckpointedReplay})
+     */
+    public interface LineListener {
+        /**
+         * @param board Доска после строки
+         * @param white Ход белых из строки
+         * @param black Ход чёрных или null, если в строке ходят только белые. Ходы ссылаются на строку, которую
+         *              источник может переиспользовать, поэтому после возврата из метода их нельзя хранить
+         */
+        void lineMade(Board board, Move white, Move black) throws IOException;
+    }
 
-    private String correctPositionPattern;
-    private String correctMovePattern;
-    private String correctTwoSideMovePattern;
+    private static final Colour[] COLOURS = Colour.values();
 
-    protected abstract Figure createFigure(Colour colour, String position);
+    /**
+     * Чёрные клетки в алфавитном порядке их записей: по горизонталям, внутри горизонтали - по вертикалям
+     */
+    private static final int[] SQUARES_IN_NOTATION_ORDER = new int[Bitboard.SQUARES_COUNT];
 
-    private Figure createFigure(Colour colour, StringBuilder position) {
-        return createFigure(colour, position.toString());
+    static {
+        int count = 0;
+        for (int file = 0; file < 8; ++file) {
+            for (int rank = 0; rank < 8; ++rank) {
+                int square = Bitboard.getSquare(file, rank);
+                if (square != -1) {
+                    SQUARES_IN_NOTATION_ORDER[count++] = square;
+                }
+            }
+        }
     }
 
+    private ArrayList<Figure> board;
+    /**
+     * Фигуры, которые нужно разблокировать (и снять с доски, если они опустели) после взятия: побитые фигуры, а также
+     * фигуры из начальной расстановки, цвет которых не совпадает с цветом верхней шашки или которые пусты
+     */
+    private final ArrayList<Figure> lockedFigures = new ArrayList<>();
+    private Bitboard bitboard;
+    /**
+     * Для каждого цвета маска клеток, фигура на которых (с верхней шашкой этого цвета) может бить. Пересчитывается
+     * только на диагоналях, проходящих через клетки, изменённые с прошлой проверки (см. {@link #updateCaptureSquares})
+     */
+    private final int[] captureSquares = new int[COLOURS.length];
+    private LineSource movesAndTurns;
+    /**
+     * Расстановка уже взята из контрольной точки (см. {@link #readCheckpoint}), и источник начинается с ходов
+     */
+    private boolean positionsRead;
+    /**
+     * В расстановке была фигура, которую нельзя создать (см. {@link #createFigure}); ходы на такой доске не делаются
+     */
+    private boolean positionsInvalid;
+    private LineListener lineListener;
+    private boolean skipTrailingBlankLines;
+    private int movesCount;
+    private long zobristKey;
+    private boolean gameEnded = false;
+    /**
+     * Цвет и запись хода, на котором последний раз обнаружена ошибка (null, если ошибка относится к строке целиком)
+     */
+    private Colour errorColour;
+    private String errorMove;
+    /**
+     * Текущий ход задан клетками без записи башен (см. {@link Move#setFigureColour}), и запись не сверяется
+     */
+    private boolean notationImplied;
+
+    private MoveParser parser;
+    private final Move whiteMove = new Move();
+    private final Move blackMove = new Move();
+
+    /**
+     * @return Фигуру или null, если такую фигуру поставить на доску нельзя (ошибка "general error")
+     */
+    protected abstract Figure createFigure(Colour colour, CharSequence position);
+
     protected abstract void beatFigure(Figure movingFigure, Figure figureToBeat);
 
-    protected abstract void checkIfNotationIsRightElseThrow(Figure figure, String endPos, boolean itIsBeating)
-            throws GeneralErrorException;
+    protected abstract boolean checkIfNotationIsRight(Figure figure, CharSequence endPos, boolean itIsBeating);
 
-    protected abstract void checkFinalCorectnessOfNotation(Figure figureToBeat, String endPos)
-            throws GeneralErrorException;
+    protected abstract boolean checkFinalCorectnessOfNotation(Figure figureToBeat, CharSequence endPos);
+
+    protected abstract boolean checkIfFigureCanGrow(Figure movingFigure);
+
+    /**
+     * Читает фигуру, записанную {@link Figure#write}
+     * @param in Поток с фигурой
+     * @return Прочитанную фигуру
+     * @throws IOException Если запись повреждена
+     */
+    protected abstract Figure readFigure(DataInput in) throws IOException;
 
     /**
      * Возвращает фигуру на доске с данным индексом. Предполагается, что по индексу возможно достать фигуру
-     * @param index Индекс фигуры на доске
+     * @param index Индекс фигуры на доске (см. {@link Bitboard#getIndex(Colour, int)})
      * @return Фигуру с индексом @index
      */
     protected Figure getFromBoard(int index) {
-        return board.get(index);
+        return bitboard.getFigure(index);
+    }
+
+    Bitboard getBitboard() {
+        return bitboard;
     }
 
     /**
-     * Возвращает позицию фигуры цвета colour с позицией на доске boardPos. Предполагается, что такая фигура существует
-     * @param colour Цвет фигуры
+     * Возвращает индекс фигуры цвета colour с позицией на доске boardPos.
+     * @param colour Цвет верхней шашки фигуры
      * @param boardPos Позиция фигуры на доске
-     * @return Индекс фигуры с позицией на доске boardPos цвета colour
+     * @return Индекс фигуры с позицией на доске boardPos цвета colour или -1, если такой фигуры нет
      */
-    protected int getIndexFromBoard(Colour colour, String boardPos) {
-        return board.indexOf(createFigure(colour, boardPos));
-    }
-
-    private void fillPatterns(String newCorrectPositionPattern) {
-        this.correctPositionPattern = newCorrectPositionPattern;
-        correctMovePattern = "((".concat(correctPositionPattern).concat(":)+").concat(correctPositionPattern)
-                .concat(")|(").concat(correctPositionPattern).concat("-").concat(correctPositionPattern)
-                .concat(")");
-        correctTwoSideMovePattern = "(".concat(correctMovePattern).concat(") (").concat(correctMovePattern)
-                .concat(")");
+    protected int getIndexFromBoard(Colour colour, CharSequence boardPos) {
+        int square = Bitboard.getSquare(boardPos);
+        return square != -1 && bitboard.isOccupied(colour, square) ? Bitboard.getIndex(colour, square) : -1;
     }
 
-    public Board(String whitePoses, String blackPoses, String correctPositionPattern) {
-        fillPatterns(correctPositionPattern);
+    public Board(String whitePoses, String blackPoses, MoveParser parser) {
+        this.parser = parser;
         board = new ArrayList<>();
+        bitboard = new Bitboard();
         addAllOneColouredElementsOnBoard(Colour.WHITE, whitePoses);
         addAllOneColouredElementsOnBoard(Colour.BLACK, blackPoses);
     }
 
-    public Board(String pathStr, String correctPositionPattern) throws
+    public Board(String pathStr, MoveParser parser) throws
             IOException {
-        fillPatterns(correctPositionPattern);
-        Path path = Paths.get(pathStr);
-        movesAndTurns =  Files.readAllLines(path, StandardCharsets.UTF_8);
-        board = new ArrayList<>();
+        this(new InputStreamReader(Files.newInputStream(Paths.get(pathStr)), StandardCharsets.UTF_8.newDecoder()),
+                parser);
     }
 
-    public Board(String correctPositionPattern) {
-        fillPatterns(correctPositionPattern);
+    /**
+     * Партия читается из стандартного ввода. Как и раньше при чтении через Scanner, пустые строки в конце ввода
+     * игнорируются
+     */
+    public Board(MoveParser parser) {
+        this(new InputStreamReader(System.in, Charset.defaultCharset()), parser);
+        skipTrailingBlankLines = true;
+    }
+
+    /**
+     * Партия читается из канала в кодировке UTF-8
+     * @param channel Канал с партией
+     * @param parser Разбор записи ходов
+     */
+    public Board(ReadableByteChannel channel, MoveParser parser) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), parser);
+    }
+
+    /**
+     * Партия читается из reader. Ходы читаются по одному во время {@link #run()}, поэтому партия целиком в памяти
+     * не хранится, а после первой ошибки чтение прекращается
+     * @param reader Источник партии: строка с белыми, строка с чёрными, затем по строке на ход
+     * @param parser Разбор записи ходов
+     */
+    public Board(Reader reader, MoveParser parser) {
+        this(new LineReader(reader), parser);
+    }
+
+    /**
+     * Партия читается из источника строк (например, из отображённого в память корпуса партий, см. {@link Corpus})
+     * @param source Источник партии
+     * @param parser Разбор записи ходов
+     */
+    public Board(LineSource source, MoveParser parser) {
+        this.parser = parser;
+        movesAndTurns = source;
         board = new ArrayList<>();
+        bitboard = new Bitboard();
+    }
 
-        Scanner scan = new Scanner(System.in);
-        String whitePoses = scan.nextLine();
-        movesAndTurns = new ArrayList<>();
-        movesAndTurns.add(whitePoses);
-        String blackPoses = scan.nextLine();
-        movesAndTurns.add(blackPoses);
-        String move;
-        while (scan.hasNext()) {
-            move = scan.nextLine();
-            movesAndTurns.add(move);
+    /**
+     * Копирует позицию доски other: фигуры копируются, а источник ходов не копируется, поэтому копия годится только
+     * для того, чтобы делать на ней ходы через {@link #makeMoves} или {@link #makeMove}
+     * @param other Копируемая доска
+     */
+    protected Board(Board other) {
+        parser = other.parser;
+        board = new ArrayList<>(other.board.size());
+        for (var figure: other.board) {
+            Figure copy = figure.copy();
+            board.add(copy);
+            if (indexOfFigure(other.lockedFigures, figure) != -1) {
+                lockedFigures.add(copy);
+            }
         }
+        bitboard = new Bitboard(other.bitboard, board);
+        movesCount = other.movesCount;
+        zobristKey = other.zobristKey;
+        gameEnded = other.gameEnded;
     }
 
-    private void addAllOneColouredElementsOnBoard(Colour colour, String positions) {
-        Pattern pattern = Pattern.compile(correctPositionPattern);
-        Matcher matcher = pattern.matcher(positions);
-        while (matcher.find()) {
-            String position = matcher.group();
-            board.add(createFigure(colour, position));
+    private void addAllOneColouredElementsOnBoard(Colour colour, CharSequence positions) {
+        long startTime = BoardMetrics.start();
+        parser.parsePositions(positions, whiteMove);
+        BoardMetrics.stop(BoardMetrics.Phase.PARSE, startTime);
+        for (int i = 0; i < whiteMove.size(); ++i) {
+            Figure figure = createFigure(colour, whiteMove.getPosition(i));
+            if (figure == null) {
+                positionsInvalid = true;
+                continue;
+            }
+            board.add(figure);
+            bitboard.add(figure.getSquare(), figure);
+            zobristKey ^= figure.getZobristKey();
+            if (figure.isInvalid() || figure.getColour() != figure.getTopColour()) {
+                lockedFigures.add(figure);
+            }
         }
     }
 
     /**
-     * Симулирует ходы, которые Board до этого получил в конструкторе
+     * Симулирует ходы, читая их по одному из источника, переданного в конструктор
      * @return Итоговые позиции всех оставшихся фигур после симуляции ходов
      * @throws BusyCellException
      * @throws WhiteCellException
@@ -157,319 +354,783 @@ public abstract class Board {
             InvalidMoveException,
             GeneralErrorException,
             IOException {
-        addAllOneColouredElementsOnBoard(Colour.WHITE, movesAndTurns.get(0));
-        addAllOneColouredElementsOnBoard(Colour.BLACK, movesAndTurns.get(1));
-        for (int i = 2; i < movesAndTurns.size(); ++i) {
-            makeMoves(movesAndTurns.get(i));
+        String finalString = validate();
+        System.out.print(finalString);
+        return finalString;
+    }
+
+    /**
+     * Симулирует ходы, читая их по одному из источника, переданного в конструктор, ничего не печатая.
+     * В отличие от {@link #run()} может вызываться одновременно для разных досок из разных потоков
+     * @return Итоговые позиции всех оставшихся фигур после симуляции ходов
+     * @throws BusyCellException
+     * @throws WhiteCellException
+     * @throws InvalidMoveException
+     * @throws GeneralErrorException
+     */
+    public String validate() throws
+            BusyCellException,
+            WhiteCellException,
+            InvalidMoveException,
+            GeneralErrorException,
+            IOException {
+        throwIfError(check().getResult());
+        return getAllFigures();
+    }
+
+    /**
+     * Симулирует ходы, читая их по одному из источника, переданного в конструктор, так же, как {@link #validate()},
+     * но сообщает об ошибке результатом, а не исключением. Итоговую позицию верной партии можно получить через
+     * {@link #getAllFigures()}
+     * @return Результат проверки и ход, на котором обнаружена ошибка
+     * @throws IOException
+     */
+    public ValidationResult check() throws IOException {
+        MoveResult result = MoveResult.OK;
+        if (movesAndTurns != null) {
+            long startBytes = BoardMetrics.startGame();
+            long startTime = BoardMetrics.start();
+            try {
+                result = readAndMakeAllMoves();
+            } finally {
+                movesAndTurns.close();
+                movesAndTurns = null;
+                BoardMetrics.stopGame(startBytes, startTime, movesCount);
+            }
+        }
+        if (result == MoveResult.OK && (board.isEmpty() || positionsInvalid)) {
+            result = MoveResult.GENERAL_ERROR;
+        }
+        if (result == MoveResult.OK) {
+            return new ValidationResult(result, 0, null, null);
+        }
+        return new ValidationResult(result, movesCount, errorColour, errorMove);
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); ++i) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MoveResult readAndMakeAllMoves() throws IOException {
+        CharSequence line;
+        for (int i = 0; i < COLOURS.length && !positionsRead; ++i) {
+            line = movesAndTurns.readLine();
+            if (line == null) {
+                return MoveResult.GENERAL_ERROR;
+            }
+            addAllOneColouredElementsOnBoard(COLOURS[i], line);
+        }
+        if (positionsInvalid) {
+            return MoveResult.GENERAL_ERROR;
+        }
+        boolean blankLineSkipped = false;
+        while ((line = movesAndTurns.readLine()) != null) {
+            if (skipTrailingBlankLines && isBlank(line)) {
+                blankLineSkipped = true;
+                continue;
+            }
+            MoveResult result = blankLineSkipped ? tryMakeMoves("") : MoveResult.OK;
+            if (result == MoveResult.OK) {
+                result = tryMakeMoves(line);
+            }
+            if (result != MoveResult.OK) {
+                return result;
+            }
+            if (lineListener != null) {
+                lineListener.lineMade(this, whiteMove, gameEnded ? null : blackMove);
+            }
+        }
+        return MoveResult.OK;
+    }
+
+    /**
+     * @param listener Слушатель, которому {@link #check()} сообщает о каждой верно сделанной строке с ходами,
+     *                 или null
+     */
+    public void setLineListener(LineListener listener) {
+        lineListener = listener;
+    }
+
+    /**
+     * Записывает контрольную точку: все фигуры со своими пометками, заблокированные фигуры, количество сделанных
+     * строк с ходами, признак конца игры и ключ позиции, по которому при чтении проверяется целостность записи
+     * @param out Поток, в который пишется контрольная точка
+     * @throws IOException
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeShort(board.size());
+        for (var figure: board) {
+            figure.write(out);
+        }
+        out.writeShort(lockedFigures.size());
+        for (var figure: lockedFigures) {
+            out.writeShort(indexOfFigure(board, figure));
         }
-        return printAllFigures();
+        out.writeInt(movesCount);
+        out.writeBoolean(gameEnded);
+        out.writeLong(zobristKey);
     }
 
+    /**
+     * Расставляет фигуры из контрольной точки, записанной {@link #writeCheckpoint}, вместо двух первых строк партии.
+     * После этого {@link #check()} читает источник, переданный в конструктор, сразу с ходов
+     * @param in Поток с контрольной точкой
+     * @throws IOException Если запись повреждена
+     */
+    public void readCheckpoint(DataInput in) throws IOException {
+        board.clear();
+        lockedFigures.clear();
+        bitboard.clear();
+        zobristKey = 0;
+        int figuresCount = in.readUnsignedShort();
+        for (int i = 0; i < figuresCount; ++i) {
+            Figure figure = readFigure(in);
+            board.add(figure);
+            bitboard.put(figure.getSquare(), figure);
+            zobristKey ^= figure.getZobristKey();
+        }
+        int lockedCount = in.readUnsignedShort();
+        for (int i = 0; i < lockedCount; ++i) {
+            int index = in.readUnsignedShort();
+            if (index >= figuresCount) {
+                throw new IOException("corrupted checkpoint");
+            }
+            lockedFigures.add(board.get(index));
+        }
+        movesCount = in.readInt();
+        gameEnded = in.readBoolean();
+        if (in.readLong() != zobristKey) {
+            throw new IOException("corrupted checkpoint");
+        }
+        positionsRead = true;
+    }
+
+    private static final int NO_FIGURE_ON_POS = 0;
+    private static final int FIGURE_ON_POS_CANNOT_BE_BEATEN = 1;
+    private static final int FIGURE_ON_POS_CAN_BE_BEATEN = 2;
+
     //Long naming but understandable
-    private boolean checkIfFigureOfOppositeColourExistsOnPosAndUnbeatenAndAfterThisFigureNoFiguresInThisCaseThrow(
-            StringBuilder pos, Colour colour, int biasX, int biasY)
-            throws InvalidMoveException {
-        int indexOfFigureToBeat = board.indexOf(createFigure(colour, pos));
-        if (indexOfFigureToBeat == -1) {
-            return false;
+    private int checkIfFigureOfOppositeColourExistsOnPosAndUnbeatenAndAfterThisFigureNoFigures(
+            int square, Colour colour, int direction) {
+        Figure figureToBeat = bitboard.getFigure(colour, square);
+        if (figureToBeat == null) {
+            return NO_FIGURE_ON_POS;
         }
-        Figure figureToBeat = board.get(indexOfFigureToBeat);
         if (figureToBeat.wasBeaten()) {
-            return true;
-        }
-        Figure.displacePosition(pos, biasX, biasY);
-        if (!board.contains(createFigure(Colour.WHITE, pos))
-                && !board.contains(createFigure(Colour.BLACK, pos))) {
-            throw new InvalidMoveException("invalid move");
-        } else {
-            return true;
+            return FIGURE_ON_POS_CANNOT_BE_BEATEN;
         }
+        return !bitboard.isOccupied(Bitboard.getNeighbour(square, direction))
+                ? FIGURE_ON_POS_CAN_BE_BEATEN : FIGURE_ON_POS_CANNOT_BE_BEATEN;
     }
 
-    private void checkForKingIfFigureCanBeatIllegallyInThisCaseThrow(Figure figure, int biasX, int biasY)
-            throws InvalidMoveException {
-        StringBuilder pos = new StringBuilder(figure.getBoardPosition());
+    /**
+     * Дамка идёт по лучу до клетки перед краем доски: бить фигуру на краю нельзя, за ней некуда встать
+     */
+    private boolean checkForKingIfFigureCanBeatIllegally(Figure figure, int direction) {
+        int[] ray = Bitboard.getRay(figure.getSquare(), direction);
         Colour oppositeColour = getOppositeColour(figure);
-        Figure.displacePosition(pos, biasX, biasY);
-        while (pos.charAt(0) > 'a'
-                && pos.charAt(0) < 'h'
-                && pos.charAt(1) > '1'
-                && pos.charAt(1) < '8') {
-            if (board.contains(createFigure(figure.getColour(), pos))) {
-                return;
+        for (int i = 0; i < ray.length - 1; ++i) {
+            if (bitboard.isOccupied(figure.getColour(), ray[i])) {
+                return false;
             }
-            if (checkIfFigureOfOppositeColourExistsOnPosAndUnbeatenAndAfterThisFigureNoFiguresInThisCaseThrow(
-                    pos, oppositeColour, biasX, biasY)) {
-                return;
+            int figureOnPos = checkIfFigureOfOppositeColourExistsOnPosAndUnbeatenAndAfterThisFigureNoFigures(
+                    ray[i], oppositeColour, direction);
+            if (figureOnPos != NO_FIGURE_ON_POS) {
+                return figureOnPos == FIGURE_ON_POS_CAN_BE_BEATEN;
             }
-            Figure.displacePosition(pos, biasX, biasY);
         }
+        return false;
     }
 
-    private void checkForNotKingIfFigureCanBeatIllegallyInThisCaseThrow(Figure figure, int biasX, int biasY)
-            throws InvalidMoveException {
-        StringBuilder pos = new StringBuilder(figure.getBoardPosition());
-        Colour oppositeColour = getOppositeColour(figure);
-        Figure.displacePosition(pos, biasX, biasY);
-        checkIfFigureOfOppositeColourExistsOnPosAndUnbeatenAndAfterThisFigureNoFiguresInThisCaseThrow(
-                pos, oppositeColour, biasX, biasY);
+    private boolean checkForNotKingIfFigureCanBeatIllegally(Figure figure, int direction) {
+        return checkIfFigureOfOppositeColourExistsOnPosAndUnbeatenAndAfterThisFigureNoFigures(
+                Bitboard.getNeighbour(figure.getSquare(), direction), getOppositeColour(figure), direction)
+                == FIGURE_ON_POS_CAN_BE_BEATEN;
     }
 
-    private void checkIfFigureCanBeatIllegallyInThisCaseThrow(Figure figure, int biasX, int biasY) throws
-            InvalidMoveException {
+    private boolean checkIfFigureCanBeatIllegally(Figure figure, int direction) {
         if (figure.isKing()) {
-            checkForKingIfFigureCanBeatIllegallyInThisCaseThrow(figure, biasX, biasY);
+            return checkForKingIfFigureCanBeatIllegally(figure, direction);
         } else {
-            checkForNotKingIfFigureCanBeatIllegallyInThisCaseThrow(figure, biasX, biasY);
+            return checkForNotKingIfFigureCanBeatIllegally(figure, direction);
+        }
+    }
+
+    /**
+     * Проверяет, может ли фигура побить хотя бы в одном направлении. Направления, в которых до края доски
+     * меньше двух клеток, не просматриваются
+     * @return true, если может (то есть ход без взятия был бы ошибкой "invalid move")
+     */
+    private boolean checkIfFigureCanBeatIllegally(Figure figure) {
+        int square = figure.getSquare();
+        if (square == -1) {
+            return checkIfFigureOnWhiteSquareCanBeatIllegally(figure);
         }
+        for (int direction = 0; direction < Bitboard.DIRECTIONS_COUNT; ++direction) {
+            if (Bitboard.getJump(square, direction) != -1 && checkIfFigureCanBeatIllegally(figure, direction)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void checkIfFigureCanBeatIllegallyInThisCaseThrow(Figure figure) throws InvalidMoveException {
-        String beginPos = figure.getBoardPosition();
-        if (beginPos.charAt(0) > 'b' && beginPos.charAt(1) > '2') {
-            checkIfFigureCanBeatIllegallyInThisCaseThrow(figure, -1, -1);
+    /**
+     * Ищет среди фигур на белых клетках (они лежат в overflow битовой доски) самую раннюю фигуру с верхней шашкой
+     * цвета colour на клетке (file, rank)
+     * @return Фигуру или null, если такой нет или клетка вне доски
+     */
+    private Figure getFigureOnWhiteSquare(Colour colour, int file, int rank) {
+        Figure result = null;
+        for (var figure: bitboard.getOverflow()) {
+            Square square = figure.getPosition();
+            if (figure.getSquare() == -1 && square.getFile() == file && square.getRank() == rank
+                    && figure.getTopColour() == colour
+                    && (result == null || figure.getOrdinal() < result.getOrdinal())) {
+                result = figure;
+            }
         }
-        if (beginPos.charAt(0) > 'b' && beginPos.charAt(1) < '7') {
-            checkIfFigureCanBeatIllegallyInThisCaseThrow(figure, -1, 1);
+        return result;
+    }
+
+    private boolean isWhiteSquareOccupied(int file, int rank) {
+        return getFigureOnWhiteSquare(Colour.WHITE, file, rank) != null
+                || getFigureOnWhiteSquare(Colour.BLACK, file, rank) != null;
+    }
+
+    private int checkIfFigureOnWhiteSquareCanBeBeaten(int file, int rank, Colour colour, int fileStep, int rankStep) {
+        Figure figureToBeat = getFigureOnWhiteSquare(colour, file, rank);
+        if (figureToBeat == null) {
+            return NO_FIGURE_ON_POS;
         }
-        if (beginPos.charAt(0) < 'g' && beginPos.charAt(1) > '2') {
-            checkIfFigureCanBeatIllegallyInThisCaseThrow(figure, 1, -1);
+        if (figureToBeat.wasBeaten()) {
+            return FIGURE_ON_POS_CANNOT_BE_BEATEN;
+        }
+        return !isWhiteSquareOccupied(file + fileStep, rank + rankStep)
+                ? FIGURE_ON_POS_CAN_BE_BEATEN : FIGURE_ON_POS_CANNOT_BE_BEATEN;
+    }
+
+    /**
+     * То же, что {@link #checkIfFigureCanBeatIllegally(Figure, int)}, для фигуры на белой клетке. Диагонали белой
+     * клетки проходят только по белым клеткам, поэтому такая фигура видит только другие фигуры на белых клетках.
+     * Битов у белых клеток нет, и клетки перебираются по горизонтали и вертикали
+     */
+    private boolean checkIfFigureOnWhiteSquareCanBeatIllegally(Figure figure, int fileStep, int rankStep) {
+        Colour oppositeColour = getOppositeColour(figure);
+        int file = figure.getPosition().getFile() + fileStep;
+        int rank = figure.getPosition().getRank() + rankStep;
+        if (!figure.isKing()) {
+            return checkIfFigureOnWhiteSquareCanBeBeaten(file, rank, oppositeColour, fileStep, rankStep)
+                    == FIGURE_ON_POS_CAN_BE_BEATEN;
         }
-        if (beginPos.charAt(0) < 'g' && beginPos.charAt(1) < '7') {
-            checkIfFigureCanBeatIllegallyInThisCaseThrow(figure, 1, 1);
+        for (; file > 0 && file < 7 && rank > 0 && rank < 7; file += fileStep, rank += rankStep) {
+            if (getFigureOnWhiteSquare(figure.getColour(), file, rank) != null) {
+                return false;
+            }
+            int figureOnPos = checkIfFigureOnWhiteSquareCanBeBeaten(file, rank, oppositeColour, fileStep, rankStep);
+            if (figureOnPos != NO_FIGURE_ON_POS) {
+                return figureOnPos == FIGURE_ON_POS_CAN_BE_BEATEN;
+            }
         }
+        return false;
     }
 
-    private void checkIfFigureCanBeatIllegallyInThisCaseThrow(Colour colour) throws InvalidMoveException {
-        for (var figure: board) {
-            if (figure.getColour() == colour) {
-                checkIfFigureCanBeatIllegallyInThisCaseThrow(figure);
+    private boolean checkIfFigureOnWhiteSquareCanBeatIllegally(Figure figure) {
+        int file = figure.getPosition().getFile();
+        int rank = figure.getPosition().getRank();
+        for (int fileStep = -1; fileStep <= 1; fileStep += 2) {
+            for (int rankStep = -1; rankStep <= 1; rankStep += 2) {
+                if ((fileStep < 0 ? file > 1 : file < 6) && (rankStep < 0 ? rank > 1 : rank < 6)
+                        && checkIfFigureOnWhiteSquareCanBeatIllegally(figure, fileStep, rankStep)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Есть ли на доске фигуры цвета colour, включая фигуры на белых клетках
+     */
+    boolean hasFigures(Colour colour) {
+        if (bitboard.getOccupied(colour) != 0) {
+            return true;
+        }
+        for (var figure: bitboard.getOverflow()) {
+            if (figure.getSquare() == -1 && figure.getColour() == colour) {
+                return true;
             }
         }
+        return false;
     }
 
+    /**
+     * Пересчитывает captureSquares для фигур на диагоналях, проходящих через изменённые клетки. Возможность взятия
+     * зависит только от самой фигуры и клеток на её диагоналях, поэтому остальные биты остаются верными
+     */
+    private void updateCaptureSquares() {
+        int changedSquares = bitboard.takeChangedSquares();
+        int squares = 0;
+        while (changedSquares != 0) {
+            squares |= Bitboard.getDiagonals(Integer.numberOfTrailingZeros(changedSquares));
+            changedSquares &= changedSquares - 1;
+        }
+        if (squares == 0) {
+            return;
+        }
+        for (var colour: COLOURS) {
+            int captures = captureSquares[colour.ordinal()] & ~squares;
+            int figures = bitboard.getOccupied(colour) & squares;
+            while (figures != 0) {
+                int square = Integer.numberOfTrailingZeros(figures);
+                figures &= figures - 1;
+                if (checkIfFigureCanBeatIllegally(bitboard.getFigure(colour, square))) {
+                    captures |= 1 << square;
+                }
+            }
+            captureSquares[colour.ordinal()] = captures;
+        }
+    }
 
-    private void checkIfPosToMoveIsBlackElseThrow(String endPos) throws
-            WhiteCellException {
-        if ((endPos.charAt(0) + endPos.charAt(1)) % 2 != 0) {
-            throw new WhiteCellException("white cell");
+    private boolean checkIfFigureCanBeatIllegally(Colour colour) {
+        updateCaptureSquares();
+        if (captureSquares[colour.ordinal()] != 0) {
+            return true;
         }
+        for (var figure: bitboard.getOverflow()) {
+            if (figure.getColour() == colour && checkIfFigureCanBeatIllegally(figure)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void checkIfPosToMoveIsNearElseThrow(Figure figure, String endPos, boolean itIsBeating) throws
-            GeneralErrorException {
-        StringBuilder beginPos = figure.getFullPosition();
+
+    private boolean checkIfPosToMoveIsBlack(CharSequence endPos) {
+        return (endPos.charAt(0) + endPos.charAt(1)) % 2 == 0;
+    }
+
+    /**
+     * Буквы клеток сравниваются как символы, с учётом регистра. Начальная клетка берётся из заранее посчитанной записи
+     * клетки ({@link Square#getName}), а не из записи фигуры, которую пришлось бы собирать после каждого хода
+     */
+    private boolean checkIfPosToMoveIsNear(Figure figure, CharSequence endPos, boolean itIsBeating) {
+        String beginPos = figure.getPosition().getName(figure.isCapitalSquareLetter());
         int diffX = Math.abs(beginPos.charAt(0) - endPos.charAt(0));
         int diffY = Math.abs(beginPos.charAt(1) - endPos.charAt(1));
-        if (!figure.isKing()
+        return !(!figure.isKing()
                 && (itIsBeating && (diffX != 2 || diffY != 2)
                 || !itIsBeating && (diffX != 1 || diffY != 1))
-                || diffX != diffY) {
-            throw new GeneralErrorException("general error");
-        }
+                || diffX != diffY);
     }
 
-    private void checkIfPosToMoveIsFreeElseThrow(String endPos) throws BusyCellException {
-        if (board.contains(createFigure(Colour.WHITE, endPos)) || board.contains(createFigure(Colour.BLACK, endPos))) {
-            throw new BusyCellException("busy cell");
-        }
+    /**
+     * Клетка считается занятой, если на ней стоит фигура того же цвета, что и верхняя шашка в записи endPos
+     * (а она совпадает с верхней шашкой двигающейся фигуры)
+     */
+    private boolean checkIfPosToMoveIsFree(Figure figure, CharSequence endPos) {
+        return getIndexFromBoard(figure.getTopColour(), endPos) == -1;
     }
 
-    private void moveFigure(Figure figure, String endPos) {
-        figure.setPosition(endPos);
+    private void setFigurePosition(Figure figure, int endSquare, boolean capitalSquareLetter) {
+        int square = figure.getSquare();
+        figure.setPosition(Square.of(endSquare), capitalSquareLetter);
+        bitboard.move(figure, square, endSquare);
+    }
+
+    private void setFigurePosition(Figure figure, Move.Position endPos) {
+        setFigurePosition(figure, endPos.getSquare(), Character.isUpperCase(endPos.charAt(0)));
+    }
+
+    private void moveFigure(Figure figure, Move.Position endPos) {
+        zobristKey ^= figure.getZobristKey();
+        setFigurePosition(figure, endPos);
         figure.tagKingIfCorrectPosition();
+        zobristKey ^= figure.getZobristKey();
     }
 
-    private void moveFigureToPos(Figure figure, String endPos) throws
-            BusyCellException,
-            WhiteCellException,
-            InvalidMoveException,
-            GeneralErrorException {
-        checkIfNotationIsRightElseThrow(figure, endPos, false);
-        checkIfFigureCanBeatIllegallyInThisCaseThrow(figure.getColour());
-        checkIfPosToMoveIsBlackElseThrow(endPos);
-        checkIfPosToMoveIsNearElseThrow(figure, endPos, false);
-        checkIfPosToMoveIsFreeElseThrow(endPos);
-        figure.setPosition(endPos);
+    private MoveResult moveFigureToPos(Figure figure, Move.Position endPos) {
+        if (!notationImplied && !checkIfNotationIsRight(figure, endPos, false)) {
+            return MoveResult.GENERAL_ERROR;
+        }
+        long startTime = BoardMetrics.start();
+        boolean canBeat = checkIfFigureCanBeatIllegally(figure.getColour());
+        BoardMetrics.stop(BoardMetrics.Phase.FORCED_CAPTURE_SCAN, startTime);
+        if (canBeat) {
+            return MoveResult.INVALID_MOVE;
+        }
+        if (!checkIfPosToMoveIsBlack(endPos)) {
+            return MoveResult.WHITE_CELL;
+        }
+        if (!checkIfPosToMoveIsNear(figure, endPos, false)) {
+            return MoveResult.GENERAL_ERROR;
+        }
+        if (!checkIfPosToMoveIsFree(figure, endPos)) {
+            return MoveResult.BUSY_CELL;
+        }
+        zobristKey ^= figure.getZobristKey();
+        setFigurePosition(figure, endPos);
         figure.makeKingIfCorrectPosition();
+        zobristKey ^= figure.getZobristKey();
+        return MoveResult.OK;
     }
 
-    private int checkIfRequiredFigureExistsElseThrow(String beginPos, Colour colour) throws
-            GeneralErrorException  {
-        int figureIndex = board.indexOf(createFigure(colour, beginPos));
-        if (figureIndex == -1 || !board.get(figureIndex).getStringFullPosition().equals(beginPos)) {
-            throw new GeneralErrorException("general error");
+    private static boolean isNotationEqual(CharSequence notation, CharSequence otherNotation) {
+        if (notation.length() != otherNotation.length()) {
+            return false;
         }
-        return figureIndex;
+        for (int i = 0; i < notation.length(); ++i) {
+            if (notation.charAt(i) != otherNotation.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void moveFigure(String move, Colour colour) throws
-            BusyCellException,
-            WhiteCellException,
-            InvalidMoveException,
-            GeneralErrorException {
-        Pattern pattern = Pattern.compile(correctPositionPattern);
-        Matcher matcher = pattern.matcher(move);
-        Figure figure = null;
-        if (matcher.find()) {
-            String beginPos = matcher.group();
-            int figureIndex = checkIfRequiredFigureExistsElseThrow(beginPos, colour);
-            figure = board.get(figureIndex);
-        }
-        if (matcher.find()) {
-            String endPos = matcher.group();
-            moveFigureToPos(figure, endPos);
+    private Figure getFigure(Colour colour, CharSequence boardPos) {
+        int square = Bitboard.getSquare(boardPos);
+        if (square != -1) {
+            return bitboard.getFigure(colour, square);
         }
+        Square whiteSquare = Square.of(boardPos);
+        return getFigureOnWhiteSquare(colour, whiteSquare.getFile(), whiteSquare.getRank());
     }
 
-    private void beatFigureOnPathIfNotKing(Figure figure, String endPos) throws
-            GeneralErrorException  {
-        StringBuilder pos = new StringBuilder(figure.getFullPosition());
-        int biasX = pos.charAt(0) < endPos.charAt(0) ? 1 : -1;
-        int biasY = pos.charAt(1) < endPos.charAt(1) ? 1 : -1;
-        Figure.displacePosition(pos, biasX, biasY);
+    /**
+     * @return Фигуру, запись которой совпадает с первой позицией хода, или null, если такой фигуры нет. Для хода,
+     * заданного клетками, - фигуру с верхней шашкой нужного цвета на первой клетке. С белой клетки фигура может
+     * пойти, только если её туда поставила начальная расстановка, и такой ход всегда ошибочен
+     */
+    private Figure findRequiredFigure(Move move, Colour colour) {
+        Move.Position beginPos = move.getPosition(0);
+        if (notationImplied) {
+            return getFigure(move.getFigureColour(), beginPos);
+        }
+        for (var figureColour: Colour.values()) {
+            Figure figure = getFigure(figureColour, beginPos);
+            if (figure != null && isNotationEqual(beginPos, figure.getFullPosition())) {
+                return figure;
+            }
+        }
+        return null;
+    }
 
-        Colour oppositeColour = getOppositeColour(figure);
-        int beatingFigureIndex = board.indexOf(createFigure(oppositeColour, pos));
-        if (beatingFigureIndex != -1) {
-            beatFigureWithIndex(figure, beatingFigureIndex, endPos);
-        } else {
-            throw new GeneralErrorException("general error");
+    private MoveResult moveFigure(Move move, Colour colour) {
+        Figure figure = findRequiredFigure(move, colour);
+        if (figure == null) {
+            return MoveResult.GENERAL_ERROR;
         }
+        return moveFigureToPos(figure, move.getPosition(1));
     }
 
-    private void beatFigureWithIndex(Figure figure, int beatingFigureIndex, String endPos)
-            throws GeneralErrorException {
-        Figure beatingFigure = getFromBoard(beatingFigureIndex);
-        if (beatingFigure.wasBeaten()) {
-            throw new GeneralErrorException("general error");
+    private boolean beatFigureOnPathIfNotKing(Figure figure, Move.Position endPos) {
+        int square = figure.getSquare();
+        int beatingSquare = Bitboard.getNeighbour(square, Bitboard.getDirection(square, endPos.getSquare()));
+        Figure beatingFigure = bitboard.getFigure(getOppositeColour(figure), beatingSquare);
+        return beatingFigure != null && beatFoundFigure(figure, beatingFigure, endPos);
+    }
+
+    private boolean beatFoundFigure(Figure figure, Figure beatingFigure, CharSequence endPos) {
+        if (beatingFigure.wasBeaten() || !notationImplied && !checkFinalCorectnessOfNotation(beatingFigure, endPos)
+                || !checkIfFigureCanGrow(figure)) {
+            return false;
         }
-        checkFinalCorectnessOfNotation(beatingFigure, endPos);
+        zobristKey ^= figure.getZobristKey() ^ beatingFigure.getZobristKey();
         beatFigure(figure, beatingFigure);
+        bitboard.update(beatingFigure.getSquare(), beatingFigure);
+        zobristKey ^= figure.getZobristKey() ^ beatingFigure.getZobristKey();
+        lockedFigures.add(beatingFigure);
+        return true;
     }
 
-    private void beatFigureOnPathIfKing(Figure figure, String endPos) throws
-            GeneralErrorException {
-        StringBuilder pos = new StringBuilder(figure.getFullPosition());
-        int biasX = pos.charAt(0) < endPos.charAt(0) ? 1 : -1;
-        int biasY = pos.charAt(1) < endPos.charAt(1) ? 1 : -1;
-        Figure.displacePosition(pos, biasX, biasY);
+    private boolean beatFigureOnPathIfKing(Figure figure, Move.Position endPos) {
+        int square = figure.getSquare();
+        int endSquare = endPos.getSquare();
+        int[] ray = Bitboard.getRay(square, Bitboard.getDirection(square, endSquare));
         Colour oppositeColour = getOppositeColour(figure);
-        int beatingFigureIndex = -1;
-        int countOfBeatingFigures = 0;
-        while (pos.charAt(0) != endPos.charAt(0)) {
-            int oppositeFigureIndex = board.indexOf(createFigure(oppositeColour, pos));
-            if (board.contains(createFigure(figure.getColour(), pos))) {
-                throw new GeneralErrorException("general error");
-            } else if (oppositeFigureIndex != -1 && countOfBeatingFigures == 0) {
-                beatingFigureIndex = oppositeFigureIndex;
-                ++countOfBeatingFigures;
-            } else if (oppositeFigureIndex != -1 && countOfBeatingFigures > 0) {
-                throw new GeneralErrorException("general error");
-            }
-            Figure.displacePosition(pos, biasX, biasY);
-        }
-        if (countOfBeatingFigures == 0) {
-            throw new GeneralErrorException("general error");
-        } else {
-            beatFigureWithIndex(figure, beatingFigureIndex, endPos);
+        Figure beatingFigure = null;
+        for (int i = 0; ray[i] != endSquare; ++i) {
+            if (bitboard.isOccupied(figure.getColour(), ray[i])) {
+                return false;
+            }
+            Figure oppositeFigure = bitboard.getFigure(oppositeColour, ray[i]);
+            if (oppositeFigure != null && beatingFigure != null) {
+                return false;
+            } else if (oppositeFigure != null) {
+                beatingFigure = oppositeFigure;
+            }
         }
+        return beatingFigure != null && beatFoundFigure(figure, beatingFigure, endPos);
     }
 
-    private void beatFigureOnPath(Figure figure, String endPos) throws
-            GeneralErrorException {
+    /**
+     * Бьёт башню между позицией figure и endPos. Клетки figure и endPos должны лежать на одной диагонали
+     * @return false, если бить нечего или взятие записано неверно
+     */
+    private boolean beatFigureOnPath(Figure figure, Move.Position endPos) {
+        long startTime = BoardMetrics.start();
+        boolean beaten;
         if (figure.isKing()) {
-            beatFigureOnPathIfKing(figure, endPos);
+            beaten = beatFigureOnPathIfKing(figure, endPos);
         } else {
-            beatFigureOnPathIfNotKing(figure, endPos);
+            beaten = beatFigureOnPathIfNotKing(figure, endPos);
         }
+        BoardMetrics.stop(BoardMetrics.Phase.BEAT_ON_PATH, startTime);
+        return beaten;
     }
 
-    private void moveFigureWithBeating(Figure figure, String endPos) throws
-            BusyCellException,
-            WhiteCellException,
-            GeneralErrorException {
-        checkIfNotationIsRightElseThrow(figure, endPos, true);
-        checkIfPosToMoveIsBlackElseThrow(endPos);
-        checkIfPosToMoveIsNearElseThrow(figure, endPos, true);
-        checkIfPosToMoveIsFreeElseThrow(endPos);
-        beatFigureOnPath(figure, endPos);
+    private MoveResult moveFigureWithBeating(Figure figure, Move.Position endPos) {
+        if (!notationImplied && !checkIfNotationIsRight(figure, endPos, true)) {
+            return MoveResult.GENERAL_ERROR;
+        }
+        if (!checkIfPosToMoveIsBlack(endPos)) {
+            return MoveResult.WHITE_CELL;
+        }
+        if (!checkIfPosToMoveIsNear(figure, endPos, true)) {
+            return MoveResult.GENERAL_ERROR;
+        }
+        if (!checkIfPosToMoveIsFree(figure, endPos)) {
+            return MoveResult.BUSY_CELL;
+        }
+        if (!beatFigureOnPath(figure, endPos)) {
+            return MoveResult.GENERAL_ERROR;
+        }
         moveFigure(figure, endPos);
+        return MoveResult.OK;
     }
 
-    private void removeFigures() {
-        for (int i = board.size() - 1; i >= 0; --i) {
-            if (board.get(i).isInvalid()) {
-                board.remove(i);
+    private static int indexOfFigure(ArrayList<Figure> figures, Figure figure) {
+        for (int i = figures.size() - 1; i >= 0; --i) {
+            if (figures.get(i) == figure) {
+                return i;
             }
         }
+        return -1;
     }
 
+    /**
+     * Снимает фигуру с доски. Фигуры сравниваются по ссылке, а не через equals
+     */
+    private void removeFromBoard(Figure figure) {
+        int index = indexOfFigure(board, figure);
+        if (index != -1) {
+            bitboard.remove(figure.getSquare(), figure);
+            board.remove(index);
+        }
+    }
+
+    /**
+     * Снимает с доски опустевшие заблокированные фигуры и разблокирует остальные. Просматриваются только
+     * фигуры из lockedFigures, а не вся доска
+     */
     private void unlockFigures() {
-        for (var figure: board) {
+        long startTime = BoardMetrics.start();
+        for (var figure: lockedFigures) {
+            if (figure.isInvalid()) {
+                removeFromBoard(figure);
+            }
+        }
+        for (var figure: lockedFigures) {
             figure.unlock();
+            bitboard.touch(figure.getSquare());
         }
+        lockedFigures.clear();
+        BoardMetrics.stop(BoardMetrics.Phase.UNLOCK_FIGURES, startTime);
     }
 
     /**
      * Бьет в ряд фигурой цвета @colour шашки на позициях в @move
      * @param move Ход, в котором записано, на каких позициях надо бить
      * @param colour Цвет бьющей шашки
-     * @throws BusyCellException
-     * @throws WhiteCellException
-     * @throws InvalidMoveException
-     * @throws GeneralErrorException
+     * @return Результат проверки взятия
      */
-    private void beatInARow(String move, Colour colour) throws
-            BusyCellException,
-            WhiteCellException,
-            InvalidMoveException,
-            GeneralErrorException {
-        Pattern pattern = Pattern.compile(correctPositionPattern);
-        Matcher matcher = pattern.matcher(move);
-        ArrayList<String> subposes = new ArrayList<>();
-        while (matcher.find()) {
-            subposes.add(matcher.group());
+    private MoveResult beatInARow(Move move, Colour colour) {
+        Figure figure = findRequiredFigure(move, colour);
+        if (figure == null) {
+            return MoveResult.GENERAL_ERROR;
         }
-        int figureIndex = checkIfRequiredFigureExistsElseThrow(subposes.get(0), colour);
-        Figure figure = board.get(figureIndex);
-        for (int i = 0; i < subposes.size() - 1; ++i) {
-            moveFigureWithBeating(figure, subposes.get(i + 1));
+        for (int i = 1; i < move.size(); ++i) {
+            MoveResult result = moveFigureWithBeating(figure, move.getPosition(i));
+            if (result != MoveResult.OK) {
+                return result;
+            }
         }
+        zobristKey ^= figure.getZobristKey();
         figure.makeKingIfTaggedEarlier();
-        checkIfFigureCanBeatIllegallyInThisCaseThrow(figure);
+        zobristKey ^= figure.getZobristKey();
+        long startTime = BoardMetrics.start();
+        boolean canBeat = checkIfFigureCanBeatIllegally(figure);
+        BoardMetrics.stop(BoardMetrics.Phase.FORCED_CAPTURE_SCAN, startTime);
+        if (canBeat) {
+            return MoveResult.INVALID_MOVE;
+        }
 
-        removeFigures();
         unlockFigures();
+        return MoveResult.OK;
     }
 
-    private void makeSpecificMove(String move, Colour colour) throws
-            BusyCellException,
-            WhiteCellException,
-            InvalidMoveException,
-            GeneralErrorException {
-        Pattern pattern = Pattern.compile("[:-]");
-        Matcher matcher = pattern.matcher(move);
-        if (matcher.find()) {
-            if (matcher.group().equals("-")) {
-                moveFigure(move, colour);
+    private static Colour getOppositeColour(Colour colour) {
+        return colour == Colour.WHITE ? Colour.BLACK : Colour.WHITE;
+    }
+
+    /**
+     * Делает сгенерированный ход без проверок и запоминает в undo всё, что нужно для его отмены. В отличие от
+     * {@link #makeMove(CharSequence, Colour)} не просматривает всю доску: меняются только ходившая и побитые фигуры.
+     * Буква клетки ходившей фигуры остаётся в прежнем регистре, как в записи хода от
+     * {@link TowersMoveGenerator#appendNotation}
+     * @param moves Буфер со сгенерированными для текущей позиции ходами (см. {@link TowersMoveGenerator})
+     * @param index Номер хода в буфере
+     * @param undo Запись, в которую сохраняется информация для {@link #unmakeMove}
+     */
+    public void makeMove(MoveBuffer moves, int index, UndoRecord undo) {
+        Colour colour = moves.getColour();
+        Figure figure = bitboard.getFigure(colour, moves.getFrom(index));
+        undo.begin(figure, zobristKey);
+        zobristKey ^= figure.getZobristKey();
+        boolean wasKing = figure.isKing();
+        boolean capitalSquareLetter = figure.isCapitalSquareLetter();
+        if (!moves.isCapture(index)) {
+            setFigurePosition(figure, moves.getTo(index), capitalSquareLetter);
+            figure.makeKingIfCorrectPosition();
+        } else {
+            Colour oppositeColour = getOppositeColour(colour);
+            for (int step = 0; step < moves.getStepsCount(index); ++step) {
+                int capturedSquare = moves.getCaptured(index, step);
+                Figure capturedFigure = bitboard.getFigure(oppositeColour, capturedSquare);
+                undo.addCaptured(capturedFigure);
+                zobristKey ^= capturedFigure.getZobristKey();
+                beatFigure(figure, capturedFigure);
+                bitboard.update(capturedSquare, capturedFigure);
+                zobristKey ^= capturedFigure.getZobristKey();
+                setFigurePosition(figure, moves.getLanding(index, step), capitalSquareLetter);
+                figure.tagKingIfCorrectPosition();
+            }
+            figure.makeKingIfTaggedEarlier();
+            for (int i = 0; i < undo.getCapturedCount(); ++i) {
+                Figure capturedFigure = undo.getCaptured(i);
+                if (capturedFigure.isInvalid()) {
+                    removeFromBoard(capturedFigure);
+                }
+                capturedFigure.unlock();
+            }
+        }
+        undo.setPromoted(!wasKing && figure.isKing());
+        zobristKey ^= figure.getZobristKey();
+    }
+
+    /**
+     * Отменяет ход, сделанный {@link #makeMove(MoveBuffer, int, UndoRecord)}. Ходы отменяются в обратном порядке
+     * @param undo Запись, заполненная при ходе
+     */
+    public void unmakeMove(UndoRecord undo) {
+        Figure figure = undo.getFigure();
+        int square = figure.getSquare();
+        figure.restoreUndoState(undo.getFigureState());
+        bitboard.move(figure, square, figure.getSquare());
+        for (int i = undo.getCapturedCount() - 1; i >= 0; --i) {
+            Figure capturedFigure = undo.getCaptured(i);
+            boolean removed = capturedFigure.isInvalid();
+            capturedFigure.restoreUndoState(undo.getCapturedState(i));
+            capturedFigure.unlock();
+            if (removed) {
+                board.add(capturedFigure);
+                bitboard.put(capturedFigure.getSquare(), capturedFigure);
             } else {
-                beatInARow(move, colour);
+                bitboard.update(capturedFigure.getSquare(), capturedFigure);
             }
         }
+        zobristKey = undo.getZobristKey();
     }
 
-    private void checkIfMovesAreCorrectElseThrow(String moves) throws GeneralErrorException {
-        if (gameEnded) {
-            throw new GeneralErrorException("general error");
+    /**
+     * Запоминает текущую позицию, чтобы потом вернуться к ней через {@link #restore}. Фигуры не копируются: снимок
+     * делит с предыдущими снимками состояния всех фигур, которые с тех пор не менялись (см. {@link Snapshot})
+     * @return Снимок позиции
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Возвращает доску к позиции из снимка: фигуры, количество сделанных строк с ходами, ключ позиции и признак
+     * конца игры. Доску можно вернуть к снимку и после ошибки в ходе. Источник ходов и запись последней ошибки
+     * снимок не затрагивает
+     * @param snapshot Снимок, сделанный {@link #snapshot()} этой же доски
+     */
+    public void restore(Snapshot snapshot) {
+        if (snapshot.board != this) {
+            throw new IllegalArgumentException("snapshot belongs to another board");
         }
-        boolean inputMovesWasWrittenCorrectly = moves.matches(correctTwoSideMovePattern);
-        if (!inputMovesWasWrittenCorrectly) {
-            boolean itsFinalTurn = moves.matches(correctMovePattern);
-            if (!itsFinalTurn) {
-                throw new GeneralErrorException("general error");
-            }
+        board.clear();
+        bitboard.clear();
+        for (var state: snapshot.figures) {
+            Figure figure = state.getFigure();
+            figure.restoreState(state);
+            board.add(figure);
+            bitboard.put(figure.getSquare(), figure);
+        }
+        lockedFigures.clear();
+        lockedFigures.addAll(Arrays.asList(snapshot.lockedFigures));
+        movesCount = snapshot.movesCount;
+        zobristKey = snapshot.zobristKey;
+        gameEnded = snapshot.gameEnded;
+    }
+
+    private MoveResult makeSpecificMove(Move move, Colour colour) {
+        notationImplied = move.getFigureColour() != null;
+        MoveResult result;
+        if (positionsInvalid) {
+            result = MoveResult.GENERAL_ERROR;
+        } else {
+            result = move.isBeating() ? beatInARow(move, colour) : moveFigure(move, colour);
+        }
+        if (result != MoveResult.OK) {
+            errorColour = colour;
+            errorMove = move.toString();
         }
+        return result;
+    }
+
+    /**
+     * Проверяет, что игра не закончилась и строка с ходами записана верно, и разбирает её
+     * @return Количество ходов в строке или 0, если строка записана неверно
+     */
+    private int checkIfMovesAreCorrect(CharSequence moves) {
+        if (gameEnded) {
+            return 0;
+        }
+        long startTime = BoardMetrics.start();
+        int movesInLine = parser.parseMoves(moves, whiteMove, blackMove);
+        BoardMetrics.stop(BoardMetrics.Phase.PARSE, startTime);
+        return movesInLine;
+    }
+
+    private MoveResult lineError(CharSequence moves) {
+        errorColour = null;
+        errorMove = moves.toString();
+        return MoveResult.GENERAL_ERROR;
+    }
+
+    /**
+     * Возвращает ключ Зобриста текущей позиции: XOR ключей всех фигур на доске (см. {@link Zobrist}). Ключ
+     * обновляется при каждом изменении фигуры, поэтому позицию можно сравнивать и класть в хеш-таблицы,
+     * не записывая доску в строку
+     * @return 64-битный ключ позиции
+     */
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    /**
+     * Возвращает количество строк с ходами, которые доска начала выполнять (включая строку с ошибкой)
+     * @return Количество строк с ходами
+     */
+    public int getMovesCount() {
+        return movesCount;
     }
 
     /**
@@ -489,31 +1150,85 @@ public abstract class Board {
      * @throws WhiteCellException
      * @throws InvalidMoveException
      */
-    public void makeMoves(String moves) throws
+    public void makeMoves(CharSequence moves) throws
             GeneralErrorException,
             BusyCellException,
             WhiteCellException,
             InvalidMoveException {
-        checkIfMovesAreCorrectElseThrow(moves);
-        Pattern pattern = Pattern.compile(correctMovePattern);
-        Matcher matcher = pattern.matcher(moves);
-        if (matcher.find()) {
-            String whiteMove = matcher.group();
-            makeSpecificMove(whiteMove, Colour.WHITE);
-        } else {
-            throw new GeneralErrorException("general error");
+        throwIfError(tryMakeMoves(moves));
+    }
+
+    /**
+     * Делает ходы из строки так же, как {@link #makeMoves}, но сообщает об ошибке результатом, а не исключением.
+     * После ошибки доска остаётся в промежуточном состоянии, и дальше её можно только выбросить или вернуть
+     * к снимку через {@link #restore}
+     * @param moves Строка с ходами белых и чёрных
+     * @return Результат проверки
+     */
+    public MoveResult tryMakeMoves(CharSequence moves) {
+        ++movesCount;
+        int sidesCount = checkIfMovesAreCorrect(moves);
+        if (sidesCount == 0) {
+            return lineError(moves);
         }
-        if (matcher.find()) {
-            String blackMove = matcher.group();
-            makeSpecificMove(blackMove, Colour.BLACK);
-        } else {
-            for (var figure : board) {
-                if (figure.getColour() == Colour.BLACK) {
-                    throw new GeneralErrorException("general error");
-                }
-            }
-            gameEnded = true;
+        MoveResult result = makeSpecificMove(whiteMove, Colour.WHITE);
+        if (result != MoveResult.OK) {
+            return result;
+        }
+        if (sidesCount == 2) {
+            return makeSpecificMove(blackMove, Colour.BLACK);
+        }
+        if (hasFigures(Colour.BLACK)) {
+            return lineError(moves);
+        }
+        gameEnded = true;
+        return MoveResult.OK;
+    }
+
+    /**
+     * Делает ход одной стороны, например "c3_w-d4_w" или "e3_wb:c5_wbw:e7_wbww", со всеми проверками,
+     * кроме проверок строки хода целиком (конец игры, ход чёрных в той же строке)
+     * @param move Запись хода
+     * @param colour Цвет ходящей стороны
+     * @throws GeneralErrorException
+     * @throws BusyCellException
+     * @throws WhiteCellException
+     * @throws InvalidMoveException
+     */
+    public void makeMove(CharSequence move, Colour colour) throws
+            GeneralErrorException,
+            BusyCellException,
+            WhiteCellException,
+            InvalidMoveException {
+        throwIfError(tryMakeMove(move, colour));
+    }
+
+    /**
+     * Делает ход одной стороны так же, как {@link #makeMove(CharSequence, Colour)}, но сообщает об ошибке
+     * результатом, а не исключением
+     * @param move Запись хода
+     * @param colour Цвет ходящей стороны
+     * @return Результат проверки
+     */
+    public MoveResult tryMakeMove(CharSequence move, Colour colour) {
+        long startTime = BoardMetrics.start();
+        int movesInLine = parser.parseMoves(move, whiteMove, blackMove);
+        BoardMetrics.stop(BoardMetrics.Phase.PARSE, startTime);
+        if (movesInLine != 1) {
+            return lineError(move);
         }
+        return makeSpecificMove(whiteMove, colour);
+    }
+
+    /**
+     * Делает ход одной стороны из уже разобранного хода, не разбирая текст. Ход может быть задан клетками без записи
+     * башен (см. {@link Move#setFigureColour}), как в двоичной записи партии {@link BinaryGame}
+     * @param move Ход
+     * @param colour Цвет ходящей стороны
+     * @return Результат проверки
+     */
+    public MoveResult tryMakeMove(Move move, Colour colour) {
+        return makeSpecificMove(move, colour);
     }
 
     private void sortFiguresInBoard() {
@@ -528,8 +1243,7 @@ public abstract class Board {
         });
     }
 
-    private String getAllFiguresInString() throws IOException {
-        StringBuilder finalString = new StringBuilder();
+    private void appendSortedFigures(Appendable out) throws IOException {
         Iterator<Figure> itr = board.iterator();
         Figure figure = null;
         boolean meetBlackFigure = false;
@@ -539,34 +1253,121 @@ public abstract class Board {
                 meetBlackFigure = true;
                 break;
             }
-            finalString.append(figure.getStringFullPosition()).append(' ');
+            out.append(figure.getFullPosition()).append(' ');
         }
-        finalString.append('\n');
+        out.append('\n');
         if (meetBlackFigure) {
-            finalString.append(figure.getStringFullPosition()).append(' ');
+            out.append(figure.getFullPosition()).append(' ');
             while (itr.hasNext()) {
                 figure = itr.next();
-                finalString.append(figure.getStringFullPosition()).append(' ');
+                out.append(figure.getFullPosition()).append(' ');
             }
         }
-        finalString.append('\n');
-        return finalString.toString();
+        out.append('\n');
     }
 
     /**
-     * Печатает позиции шашек
-     * @return Строка, в которой зписаны итоговые позиции шашек: на 1 строке все белые, на 2 строке все чёрные
+     * Проверяет, что каждая фигура стоит на своей чёрной клетке в битовой доске и ни одна не ждёт в overflow. Тогда
+     * на клетке не больше двух фигур (с верхними шашками разных цветов), и фигуры можно выписать, обходя клетки
+     */
+    private boolean canAppendWithoutSorting() {
+        if (!bitboard.getOverflow().isEmpty()) {
+            return false;
+        }
+        int figuresCount = 0;
+        for (var colour: COLOURS) {
+            for (int figures = bitboard.getOccupied(colour); figures != 0; figures &= figures - 1) {
+                int square = Integer.numberOfTrailingZeros(figures);
+                Figure figure = bitboard.getFigure(colour, square);
+                if (figure.getSquare() != square || figure.getColour() == null) {
+                    return false;
+                }
+                ++figuresCount;
+            }
+        }
+        return figuresCount == board.size();
+    }
+
+    private Figure getFigureToAppend(Colour topColour, int square, Colour colour, boolean capitalSquareLetter) {
+        Figure figure = bitboard.getFigure(topColour, square);
+        if (figure == null
+                || figure.getColour() != colour
+                || Character.isUpperCase(figure.getFullPosition().charAt(0)) != capitalSquareLetter) {
+            return null;
+        }
+        return figure;
+    }
+
+    private static void appendFigure(Figure figure, Appendable out) throws IOException {
+        if (figure != null) {
+            out.append(figure.getFullPosition()).append(' ');
+        }
+    }
+
+    /**
+     * Выписывает фигуры цвета colour в том же порядке, в котором их расставила бы сортировка записей: сначала
+     * клетки, записанные заглавной буквой, затем строчной, внутри - в алфавитном порядке клеток
+     */
+    private void appendFiguresInNotationOrder(Colour colour, Appendable out) throws IOException {
+        for (int pass = 0; pass < 2; ++pass) {
+            boolean capitalSquareLetter = pass == 0;
+            for (int square: SQUARES_IN_NOTATION_ORDER) {
+                Figure first = getFigureToAppend(Colour.WHITE, square, colour, capitalSquareLetter);
+                Figure second = getFigureToAppend(Colour.BLACK, square, colour, capitalSquareLetter);
+                if (first != null && second != null
+                        && first.getFullPosition().compareTo(second.getFullPosition()) > 0) {
+                    Figure swap = first;
+                    first = second;
+                    second = swap;
+                }
+                appendFigure(first, out);
+                appendFigure(second, out);
+            }
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Дописывает позиции шашек в out: на 1 строке все белые, на 2 строке все чёрные, внутри строки - в алфавитном
+     * порядке записей. Обычно фигуры выписываются обходом клеток без сортировки и без создания строк
+     * @param out Куда дописываются позиции
      * @throws GeneralErrorException
+     * @throws IOException
      */
-    public String printAllFigures() throws GeneralErrorException, IOException {
+    public void appendAllFigures(Appendable out) throws GeneralErrorException, IOException {
         if (board.isEmpty()) {
             throw new GeneralErrorException("general error");
         }
+        long startTime = BoardMetrics.start();
+        if (canAppendWithoutSorting()) {
+            appendFiguresInNotationOrder(Colour.WHITE, out);
+            appendFiguresInNotationOrder(Colour.BLACK, out);
+        } else {
+            sortFiguresInBoard();
+            appendSortedFigures(out);
+        }
+        BoardMetrics.stop(BoardMetrics.Phase.OUTPUT, startTime);
+    }
 
-        sortFiguresInBoard();
-
-        String finalString = getAllFiguresInString();
+    /**
+     * Печатает позиции шашек
+     * @return Строка, в которой зписаны итоговые позиции шашек: на 1 строке все белые, на 2 строке все чёрные
+     * @throws GeneralErrorException
+     */
+    public String printAllFigures() throws GeneralErrorException, IOException {
+        String finalString = getAllFigures();
         System.out.print(finalString);
         return finalString;
     }
+
+    /**
+     * Записывает позиции шашек, ничего не печатая
+     * @return Строка, в которой зписаны итоговые позиции шашек: на 1 строке все белые, на 2 строке все чёрные
+     * @throws GeneralErrorException
+     */
+    public String getAllFigures() throws GeneralErrorException, IOException {
+        StringBuilder finalString = new StringBuilder();
+        appendAllFigures(finalString);
+        return finalString.toString();
+    }
 }
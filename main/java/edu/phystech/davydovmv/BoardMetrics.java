@@ -0,0 +1,266 @@
+package edu.phystech.davydovmv;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики и таймеры горячих участков {@link Board}: сколько раз выполнялся участок и сколько наносекунд он занял,
+ * а для каждой проверенной партии ({@link Board#check()}) - её время и оценка выделенной памяти (байты, выделенные
+ * потоком за проверку, по com.sun.management.ThreadMXBean).
+ * <p>
+ * Замеры включаются свойством -Dtowers.metrics=true (или опцией --metrics в {@link Main}) до первого обращения
+ * к классу. {@link #ENABLED} - константа, поэтому при выключенных замерах JIT убирает вызовы {@link #start()} и
+ * {@link #stop} целиком. Счётчики общие для всех досок и потоков (LongAdder), поэтому после пакетной проверки
+ * они описывают весь пакет; выдать их можно таблицей ({@link #summary()}) или в JSON ({@link #toJson()}).
+ */
+public final class BoardMetrics {
+
+    /**
+     * Свойство, включающее замеры
+     */
+    public static final String PROPERTY = "towers.metrics";
+
+    /**
+     * Включены ли замеры. Читается один раз при загрузке класса
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    /**
+     * Замеряемые участки
+     */
+    public enum Phase {
+        /**
+         * Разбор строк с расстановкой и ходами
+         */
+        PARSE("parse"),
+        /**
+         * Поиск обязательного взятия перед ходом без взятия и проверка, что после взятия бить больше нечего
+         */
+        FORCED_CAPTURE_SCAN("forcedCaptureScan"),
+        /**
+         * Поиск и взятие башни на пути бьющей фигуры (для дамки - проход по лучу)
+         */
+        BEAT_ON_PATH("beatOnPath"),
+        /**
+         * Снятие опустевших и разблокировка побитых башен после взятия
+         */
+        UNLOCK_FIGURES("unlockFigures"),
+        /**
+         * Запись итоговой позиции
+         */
+        OUTPUT("output");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return Имя участка в отчёте
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final LongAdder[] COUNTS = newAdders(PHASES.length);
+    private static final LongAdder[] NANOS = newAdders(PHASES.length);
+
+    private static final LongAdder GAMES = new LongAdder();
+    private static final LongAdder GAME_NANOS = new LongAdder();
+    private static final LongAdder MOVES = new LongAdder();
+    private static final LongAdder ALLOCATED_BYTES = new LongAdder();
+    private static final LongAccumulator MAX_GAME_ALLOCATED_BYTES = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Источник количества выделенных потоком байт или null, если замеры выключены или JVM его не поддерживает
+     */
+    private static final com.sun.management.ThreadMXBean THREADS = ENABLED ? getThreads() : null;
+
+    private BoardMetrics() { }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; ++i) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreads() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+                var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                if (threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return threads;
+                }
+            }
+        } catch (UnsupportedOperationException | LinkageError e) {
+            // без модуля jdk.management память не оценивается, остальные замеры работают
+        }
+        return null;
+    }
+
+    /**
+     * Начинает замер участка
+     * @return Время начала для {@link #stop} или 0, если замеры выключены
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Заканчивает замер участка, начатый {@link #start()}
+     * @param phase Участок
+     * @param startTime Время начала
+     */
+    public static void stop(Phase phase, long startTime) {
+        if (ENABLED) {
+            long elapsedTime = System.nanoTime() - startTime;
+            COUNTS[phase.ordinal()].increment();
+            NANOS[phase.ordinal()].add(elapsedTime);
+        }
+    }
+
+    private static long getThreadAllocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Начинает замер проверки партии
+     * @return Количество байт, выделенных потоком к началу проверки, или 0, если замеры выключены
+     */
+    static long startGame() {
+        return ENABLED ? getThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Заканчивает замер проверки партии, начатый {@link #startGame()}
+     * @param startBytes Результат {@link #startGame()}
+     * @param startTime Результат {@link #start()}
+     * @param movesCount Количество строк с ходами, которые сделала доска
+     */
+    static void stopGame(long startBytes, long startTime, int movesCount) {
+        if (ENABLED) {
+            long elapsedTime = System.nanoTime() - startTime;
+            long allocatedBytes = getThreadAllocatedBytes() - startBytes;
+            GAMES.increment();
+            GAME_NANOS.add(elapsedTime);
+            MOVES.add(movesCount);
+            ALLOCATED_BYTES.add(allocatedBytes);
+            MAX_GAME_ALLOCATED_BYTES.accumulate(allocatedBytes);
+        }
+    }
+
+    /**
+     * Обнуляет все счётчики, например перед следующим пакетом
+     */
+    public static void reset() {
+        for (int i = 0; i < PHASES.length; ++i) {
+            COUNTS[i].reset();
+            NANOS[i].reset();
+        }
+        GAMES.reset();
+        GAME_NANOS.reset();
+        MOVES.reset();
+        ALLOCATED_BYTES.reset();
+        MAX_GAME_ALLOCATED_BYTES.reset();
+    }
+
+    /**
+     * @param phase Участок
+     * @return Сколько раз выполнялся участок
+     */
+    public static long getCount(Phase phase) {
+        return COUNTS[phase.ordinal()].sum();
+    }
+
+    /**
+     * @param phase Участок
+     * @return Сколько наносекунд занял участок в сумме
+     */
+    public static long getNanos(Phase phase) {
+        return NANOS[phase.ordinal()].sum();
+    }
+
+    /**
+     * @return Количество проверенных партий
+     */
+    public static long getGamesCount() {
+        return GAMES.sum();
+    }
+
+    /**
+     * @return Сколько байт в сумме выделено при проверке партий (0, если JVM не умеет это считать)
+     */
+    public static long getAllocatedBytes() {
+        return ALLOCATED_BYTES.sum();
+    }
+
+    /**
+     * @return Наибольшее количество байт, выделенных при проверке одной партии
+     */
+    public static long getMaxGameAllocatedBytes() {
+        return MAX_GAME_ALLOCATED_BYTES.get();
+    }
+
+    private static double average(long total, long count) {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @return Счётчики в виде таблицы: участок, количество, общее время, среднее время и доля от времени проверки
+     * партий. Запись итоговой позиции делается после проверки, поэтому её доля считается сверх этого времени
+     */
+    public static String summary() {
+        StringBuilder result = new StringBuilder();
+        if (!ENABLED) {
+            return result.append("metrics are disabled, run with -D").append(PROPERTY).append("=true\n").toString();
+        }
+        long gamesCount = getGamesCount();
+        long gameNanos = GAME_NANOS.sum();
+        result.append(String.format(Locale.ROOT, "games: %d, moves: %d, time: %.3f ms, allocated: %d bytes"
+                        + " (%.0f per game, max %d)%n",
+                gamesCount, MOVES.sum(), gameNanos / 1e6, getAllocatedBytes(),
+                average(getAllocatedBytes(), gamesCount), getMaxGameAllocatedBytes()));
+        result.append(String.format(Locale.ROOT, "%-18s %12s %12s %10s %7s%n", "phase", "count", "total ms",
+                "ns/call", "share"));
+        for (var phase: PHASES) {
+            long count = getCount(phase);
+            long nanos = getNanos(phase);
+            result.append(String.format(Locale.ROOT, "%-18s %12d %12.3f %10.1f %6.1f%%%n", phase.getKey(), count,
+                    nanos / 1e6, average(nanos, count), gameNanos == 0 ? 0 : 100.0 * nanos / gameNanos));
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return Счётчики в JSON: {"enabled": ..., "games": ..., ..., "phases": {"parse": {"count": ..., "nanos": ...},
+     * ...}}
+     */
+    public static String toJson() {
+        long gamesCount = getGamesCount();
+        StringBuilder result = new StringBuilder();
+        result.append("{\"enabled\":").append(ENABLED)
+                .append(",\"games\":").append(gamesCount)
+                .append(",\"moves\":").append(MOVES.sum())
+                .append(",\"gameNanos\":").append(GAME_NANOS.sum())
+                .append(",\"allocatedBytes\":").append(getAllocatedBytes())
+                .append(",\"allocatedBytesPerGame\":").append(Math.round(average(getAllocatedBytes(), gamesCount)))
+                .append(",\"maxGameAllocatedBytes\":").append(getMaxGameAllocatedBytes())
+                .append(",\"phases\":{");
+        for (var phase: PHASES) {
+            if (phase.ordinal() > 0) {
+                result.append(',');
+            }
+            result.append('"').append(phase.getKey()).append("\":{\"count\":").append(getCount(phase))
+                    .append(",\"nanos\":").append(getNanos(phase)).append('}');
+        }
+        return result.append("}}\n").toString();
+    }
+}
@@ -0,0 +1,369 @@
+package edu.phystech.davydovmv;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Проверка партии из файла с контрольными точками. Через каждые interval полуходов, а также после последней верной
+ * строки с ходами, состояние доски (см. {@link Board#writeCheckpoint}) записывается в побочный файл
+ * &lt;партия&gt;.ckpt вместе со смещением в файле партии, до которого оно посчитано, и хешем начала файла до этого
+ * смещения. При следующей проверке доска восстанавливается из последней контрольной точки, начало файла для которой
+ * не изменилось, и ходы проверяются только после неё. Поэтому проверка партии, к которой дописали ходы, делает
+ * заново только новые ходы, а старое начало файла лишь читается для сверки хеша.
+ */
+public class CheckpointedReplay {
+
+    /**
+     * Расширение, которое добавляется к имени файла партии, чтобы получить имя файла с контрольными точками
+     */
+    public static final String EXTENSION = ".ckpt";
+
+    private static final int DEFAULT_INTERVAL = 1000;
+    private static final int MAGIC = 0x54434b50;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int interval;
+
+    /**
+     * Контрольная точка: состояние доски после movesCount строк с ходами, которые заканчиваются на байте offset
+     * файла партии, и хеш байт файла до offset
+     */
+    private static class Checkpoint {
+        private final int movesCount;
+        private final long offset;
+        private final boolean afterCarriageReturn;
+        private final byte[] state;
+        private long hash;
+
+        Checkpoint(int movesCount, long offset, boolean afterCarriageReturn, byte[] state) {
+            this.movesCount = movesCount;
+            this.offset = offset;
+            this.afterCarriageReturn = afterCarriageReturn;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Хеш FNV-1a начала файла, который можно продолжать с любого смещения: хеш контрольной точки служит началом
+     * для хешей следующих точек, поэтому после проверки новых ходов читаются только новые байты
+     */
+    private static class PrefixHasher {
+        private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long PRIME = 0x100000001b3L;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long position;
+        private long hash;
+        private int lastByte = -1;
+
+        PrefixHasher(InputStream in, long position, long hash) {
+            this.in = in;
+            this.position = position;
+            this.hash = hash;
+        }
+
+        PrefixHasher(InputStream in) {
+            this(in, 0, OFFSET_BASIS);
+        }
+
+        /**
+         * Хеширует байты до смещения offset
+         * @return false, если файл закончился раньше
+         */
+        boolean advanceTo(long offset) throws IOException {
+            while (position < offset) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, offset - position));
+                if (count == -1) {
+                    return false;
+                }
+                for (int i = 0; i < count; ++i) {
+                    hash = (hash ^ (buffer[i] & 0xFF)) * PRIME;
+                }
+                lastByte = buffer[count - 1];
+                position += count;
+            }
+            return true;
+        }
+
+        /**
+         * @return Заканчивается ли прочитанное начало файла концом строки
+         */
+        boolean isAtLineEnd() {
+            return lastByte == '\n' || lastByte == '\r';
+        }
+    }
+
+    /**
+     * Итог проверки: результат, доска в итоговой позиции (или в позиции с ошибкой) и то, с какой строки с ходами
+     * началась проверка
+     */
+    public static class Result {
+        private final ValidationResult validation;
+        private final Board board;
+        private final int resumedMovesCount;
+
+        Result(ValidationResult validation, Board board, int resumedMovesCount) {
+            this.validation = validation;
+            this.board = board;
+            this.resumedMovesCount = resumedMovesCount;
+        }
+
+        /**
+         * @return Результат проверки
+         */
+        public ValidationResult getValidation() {
+            return validation;
+        }
+
+        /**
+         * @return Доску после проверки. Итоговую позицию верной партии можно получить через
+         * {@link Board#getAllFigures()}
+         */
+        public Board getBoard() {
+            return board;
+        }
+
+        /**
+         * @return Количество строк с ходами, взятых из контрольной точки без проверки (0 - партия проверена целиком)
+         */
+        public int getResumedMovesCount() {
+            return resumedMovesCount;
+        }
+    }
+
+    /**
+     * @param interval Через сколько полуходов записывать контрольную точку
+     */
+    public CheckpointedReplay(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    public CheckpointedReplay() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param game Файл партии
+     * @return Файл, в котором хранятся контрольные точки партии
+     */
+    public static Path getCheckpointsPath(Path game) {
+        return game.resolveSibling(game.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Считается, что в строке с ходами два полухода; последняя строка, где ходят только белые, всё равно
+     * заканчивает игру
+     */
+    private boolean isDue(int movesCount) {
+        return 2L * movesCount / interval > 2L * (movesCount - 1) / interval;
+    }
+
+    private static byte[] takeState(Board board) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        board.writeCheckpoint(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Проверяет партию, начиная с последней подходящей контрольной точки, и обновляет файл с контрольными точками
+     * @param game Файл партии
+     * @return Итог проверки
+     * @throws IOException
+     */
+    public Result check(Path game) throws IOException {
+        Path checkpointsPath = getCheckpointsPath(game);
+        List<Checkpoint> checkpoints = readCheckpoints(checkpointsPath);
+        keepValidCheckpoints(game, checkpoints);
+        while (true) {
+            Checkpoint start = checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+            try {
+                Result result = replay(game, start, checkpoints);
+                writeCheckpoints(checkpointsPath, checkpoints);
+                return result;
+            } catch (CorruptedCheckpointException e) {
+                checkpoints.remove(checkpoints.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Контрольную точку не удалось прочитать, хотя хеш начала файла совпал
+     */
+    private static class CorruptedCheckpointException extends Exception {
+        CorruptedCheckpointException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private Result replay(Path game, Checkpoint start, List<Checkpoint> checkpoints)
+            throws IOException, CorruptedCheckpointException {
+        long startOffset = start == null ? 0 : start.offset;
+        FileChannel channel = FileChannel.open(game, StandardOpenOption.READ);
+        channel.position(startOffset);
+        LineReader reader = new LineReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1),
+                start != null && start.afterCarriageReturn);
+        TowersBoard board = new TowersBoard(reader);
+        if (start != null) {
+            try {
+                board.readCheckpoint(new DataInputStream(new ByteArrayInputStream(start.state)));
+            } catch (IOException e) {
+                channel.close();
+                throw new CorruptedCheckpointException(e);
+            }
+        }
+        List<Checkpoint> newCheckpoints = new ArrayList<>();
+        long[] lastLineEnd = {-1};
+        boolean[] lastLineAfterCarriageReturn = {false};
+        board.setLineListener((current, white, black) -> {
+            long offset = startOffset + reader.getBytesRead();
+            if (isDue(current.getMovesCount())) {
+                newCheckpoints.add(new Checkpoint(current.getMovesCount(), offset, reader.isAfterCarriageReturn(),
+                        takeState(current)));
+                lastLineEnd[0] = -1;
+            } else {
+                lastLineEnd[0] = offset;
+                lastLineAfterCarriageReturn[0] = reader.isAfterCarriageReturn();
+            }
+        });
+        ValidationResult validation = board.check();
+        board.setLineListener(null);
+        if (validation.isOk() && lastLineEnd[0] != -1) {
+            newCheckpoints.add(new Checkpoint(board.getMovesCount(), lastLineEnd[0], lastLineAfterCarriageReturn[0],
+                    takeState(board)));
+        }
+        hashNewCheckpoints(game, start, newCheckpoints);
+        checkpoints.addAll(newCheckpoints);
+        return new Result(validation, board, start == null ? 0 : start.movesCount);
+    }
+
+    /**
+     * Оставляет контрольные точки, для которых начало файла партии не изменилось. Точки идут по возрастанию
+     * смещения, поэтому после первой неподходящей точки остальные тоже отбрасываются
+     */
+    private static void keepValidCheckpoints(Path game, List<Checkpoint> checkpoints) throws IOException {
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(game)) {
+            PrefixHasher hasher = new PrefixHasher(in);
+            int validCount = 0;
+            while (validCount < checkpoints.size()) {
+                Checkpoint checkpoint = checkpoints.get(validCount);
+                if (!hasher.advanceTo(checkpoint.offset) || hasher.hash != checkpoint.hash) {
+                    break;
+                }
+                ++validCount;
+            }
+            checkpoints.subList(validCount, checkpoints.size()).clear();
+        }
+    }
+
+    /**
+     * Считает хеши новых контрольных точек, продолжая хеш точки start. Точка после строки без конца строки
+     * отбрасывается: если к такой строке что-нибудь допишут, она станет другой строкой
+     */
+    private static void hashNewCheckpoints(Path game, Checkpoint start, List<Checkpoint> newCheckpoints)
+            throws IOException {
+        if (newCheckpoints.isEmpty()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(game, StandardOpenOption.READ)) {
+            PrefixHasher hasher = start == null
+                    ? new PrefixHasher(Channels.newInputStream(channel))
+                    : new PrefixHasher(Channels.newInputStream(channel.position(start.offset)), start.offset,
+                            start.hash);
+            for (int i = 0; i < newCheckpoints.size(); ++i) {
+                Checkpoint checkpoint = newCheckpoints.get(i);
+                if (!hasher.advanceTo(checkpoint.offset) || !hasher.isAtLineEnd()) {
+                    newCheckpoints.subList(i, newCheckpoints.size()).clear();
+                    return;
+                }
+                checkpoint.hash = hasher.hash;
+            }
+        }
+    }
+
+    /**
+     * @return Контрольные точки из файла или пустой список, если файла нет или он повреждён
+     */
+    private static List<Checkpoint> readCheckpoints(Path path) throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return checkpoints;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                int movesCount = in.readInt();
+                long offset = in.readLong();
+                boolean afterCarriageReturn = in.readBoolean();
+                long hash = in.readLong();
+                byte[] state = new byte[in.readUnsignedShort()];
+                in.readFully(state);
+                Checkpoint checkpoint = new Checkpoint(movesCount, offset, afterCarriageReturn, state);
+                checkpoint.hash = hash;
+                checkpoints.add(checkpoint);
+            }
+        } catch (NoSuchFileException e) {
+            return checkpoints;
+        } catch (IOException e) {
+            checkpoints.clear();
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Записывает контрольные точки через временный файл, чтобы прерванная запись не испортила старый файл.
+     * Промежуточные точки, сделанные после последней строки прошлой проверки, заменяются новыми: остаются только
+     * точки через каждые interval полуходов и самая последняя
+     */
+    private void writeCheckpoints(Path path, List<Checkpoint> checkpoints) throws IOException {
+        List<Checkpoint> kept = new ArrayList<>();
+        for (int i = 0; i < checkpoints.size(); ++i) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if (i == checkpoints.size() - 1 || isDue(checkpoint.movesCount)) {
+                kept.add(checkpoint);
+            }
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(kept.size());
+            for (var checkpoint: kept) {
+                out.writeInt(checkpoint.movesCount);
+                out.writeLong(checkpoint.offset);
+                out.writeBoolean(checkpoint.afterCarriageReturn);
+                out.writeLong(checkpoint.hash);
+                out.writeShort(checkpoint.state.length);
+                out.write(checkpoint.state);
+            }
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
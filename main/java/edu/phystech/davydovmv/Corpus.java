@@ -0,0 +1,238 @@
+package edu.phystech.davydovmv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Корпус партий: один большой текстовый файл, в котором партии разделены пустыми строками. Файл отображается в память
+ * через FileChannel.map, границы партий находятся за один проход по файлу, а строки партий читаются прямо
+ * из отображённого буфера, без создания строк. Запись партий должна состоять из символов ASCII, каждый байт читается
+ * как один символ. Файлы больше 2 ГБ отображаются несколькими кусками, каждая партия целиком лежит в одном куске.
+ */
+public class Corpus implements Closeable {
+
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    private long[] segmentStarts = new long[0];
+    private long[] gameStarts = new long[16];
+    private long[] gameEnds = new long[16];
+    private int[] gameSegments;
+    private int gamesCount;
+
+    /**
+     * Строка партии: участок отображённого буфера, байты которого читаются как символы
+     */
+    private static class ByteLine implements CharSequence {
+        private ByteBuffer buffer;
+        private int start;
+        private int end;
+
+        private void set(ByteBuffer newBuffer, int newStart, int newEnd) {
+            buffer = newBuffer;
+            start = newStart;
+            end = newEnd;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            ByteLine result = new ByteLine();
+            result.set(buffer, start + from, start + to);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder(length());
+            return result.append(this).toString();
+        }
+    }
+
+    /**
+     * Строки одной партии корпуса
+     */
+    private static class GameLines implements LineSource {
+        private final ByteBuffer game;
+        private final ByteLine line = new ByteLine();
+        private int position;
+
+        GameLines(ByteBuffer game) {
+            this.game = game;
+        }
+
+        @Override
+        public CharSequence readLine() {
+            int limit = game.limit();
+            if (position == limit) {
+                return null;
+            }
+            int start = position;
+            while (position < limit && game.get(position) != '\n' && game.get(position) != '\r') {
+                ++position;
+            }
+            int end = position;
+            if (position < limit && game.get(position++) == '\r' && position < limit && game.get(position) == '\n') {
+                ++position;
+            }
+            line.set(game, start, end);
+            return line;
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    /**
+     * Отображает файл в память и находит в нём границы партий
+     * @param path Файл корпуса
+     * @throws IOException
+     */
+    public Corpus(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            indexGames();
+            mapSegments();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void addGame(long start, long end) {
+        if (gamesCount == gameStarts.length) {
+            gameStarts = Arrays.copyOf(gameStarts, gamesCount * 2);
+            gameEnds = Arrays.copyOf(gameEnds, gamesCount * 2);
+        }
+        gameStarts[gamesCount] = start;
+        gameEnds[gamesCount] = end;
+        ++gamesCount;
+    }
+
+    private static boolean isBlank(byte symbol) {
+        return symbol == ' ' || symbol == '\t' || symbol == '\r' || symbol == '\f';
+    }
+
+    /**
+     * Один проход по файлу: партия - это непрерывная последовательность непустых строк. Строка из одних пробелов
+     * считается пустой
+     */
+    private void indexGames() throws IOException {
+        long size = channel.size();
+        long gameStart = -1;
+        long gameEnd = -1;
+        long lineStart = 0;
+        boolean lineBlank = true;
+        for (long windowStart = 0; windowStart < size; windowStart += MAX_SEGMENT_SIZE) {
+            long windowSize = Math.min(MAX_SEGMENT_SIZE, size - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; ++i) {
+                byte symbol = window.get(i);
+                if (symbol != '\n') {
+                    lineBlank &= isBlank(symbol);
+                    continue;
+                }
+                long lineEnd = windowStart + i + 1;
+                if (!lineBlank) {
+                    if (gameStart == -1) {
+                        gameStart = lineStart;
+                    }
+                    gameEnd = lineEnd;
+                } else if (gameStart != -1) {
+                    addGame(gameStart, gameEnd);
+                    gameStart = -1;
+                }
+                lineStart = lineEnd;
+                lineBlank = true;
+            }
+        }
+        if (!lineBlank) {
+            if (gameStart == -1) {
+                gameStart = lineStart;
+            }
+            gameEnd = size;
+        }
+        if (gameStart != -1) {
+            addGame(gameStart, gameEnd);
+        }
+    }
+
+    /**
+     * Отображает файл кусками не больше 2 ГБ так, чтобы каждая партия целиком лежала в одном куске
+     */
+    private void mapSegments() throws IOException {
+        gameSegments = new int[gamesCount];
+        segmentStarts = new long[gamesCount];
+        int game = 0;
+        while (game < gamesCount) {
+            long segmentStart = gameStarts[game];
+            int firstGame = game;
+            while (game < gamesCount && gameEnds[game] - segmentStart <= MAX_SEGMENT_SIZE) {
+                gameSegments[game++] = segments.size();
+            }
+            if (game == firstGame) {
+                throw new IOException("game is too large: " + (gameEnds[game] - gameStarts[game]) + " bytes");
+            }
+            segmentStarts[segments.size()] = segmentStart;
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart,
+                    gameEnds[game - 1] - segmentStart));
+        }
+    }
+
+    /**
+     * @return Количество партий в корпусе
+     */
+    public int getGamesCount() {
+        return gamesCount;
+    }
+
+    /**
+     * @param index Номер партии
+     * @return Смещение начала партии в файле
+     */
+    public long getGameOffset(int index) {
+        return gameStarts[index];
+    }
+
+    /**
+     * Возвращает запись партии. Буфер независим от буферов других партий, поэтому партии можно читать из разных
+     * потоков одновременно
+     * @param index Номер партии
+     * @return Буфер с записью партии
+     */
+    public ByteBuffer getGame(int index) {
+        int segment = gameSegments[index];
+        long start = gameStarts[index] - segmentStarts[segment];
+        return segments.get(segment).slice((int) start, (int) (gameEnds[index] - gameStarts[index]));
+    }
+
+    /**
+     * @param index Номер партии
+     * @return Источник строк партии для {@link Board}
+     */
+    public LineSource getGameLines(int index) {
+        return new GameLines(getGame(index));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
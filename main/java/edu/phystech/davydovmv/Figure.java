@@ -1,18 +1,67 @@
 package edu.phystech.davydovmv;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
 public abstract class Figure {
 
-    private StringBuilder pos;
+    private final StringBuilder pos = new StringBuilder();
     private Colour colour;
     private boolean taggedAsKing = false;
     private boolean taggedAsBeaten = false;
+    private int ordinal;
+
+    /**
+     * Неизменяемое состояние фигуры для снимков позиции (см. {@link Board#snapshot()}). Состояние помнит, какой
+     * фигуре оно принадлежит, и возвращается в неё через {@link #restoreState(State)}
+     */
+    public abstract static class State {
+        private final Figure figure;
+
+        protected State(Figure figure) {
+            this.figure = figure;
+        }
+
+        /**
+         *
+         * @return Фигуру, состояние которой сохранено
+         */
+        public Figure getFigure() {
+            return figure;
+        }
+    }
+
+    protected Figure() { }
+
+    /**
+     * Копирует фигуру other вместе со всеми пометками
+     * @param other Копируемая фигура
+     */
+    protected Figure(Figure other) {
+        pos.append(other.pos);
+        colour = other.colour;
+        taggedAsKing = other.taggedAsKing;
+        taggedAsBeaten = other.taggedAsBeaten;
+        ordinal = other.ordinal;
+    }
+
+    /**
+     *
+     * @return Клетку, на которой стоит фигура
+     */
+    public abstract Square getPosition();
 
-    public abstract String getBoardPosition();
     public abstract boolean isKing();
     protected abstract void makeKing();
     public abstract void unlock();
     public abstract boolean isInvalid();
 
+    /**
+     *
+     * @return Цвет верхней шашки фигуры или null, если фигура пуста
+     */
+    public abstract Colour getTopColour();
+
     /**
      *
      * @return Позицию в записи хода
@@ -26,26 +75,86 @@ public abstract class Figure {
      * @return Позицию в записи хода типа String
      */
     public String getStringFullPosition() {
-        return pos.toString();
+        return getFullPosition().toString();
     }
 
     /**
-     * Делает позицию pos равной newPos
-     * @param newPos Новая позиция
+     * Переносит фигуру на клетку square
+     * @param square Новая клетка
+     * @param capitalSquareLetter Записывается ли буква клетки заглавной
      */
-    protected void setPosition(String newPos) {
-        pos = new StringBuilder(newPos);
-    }
+    protected abstract void setPosition(Square square, boolean capitalSquareLetter);
+
+    /**
+     *
+     * @return Записывается ли буква клетки фигуры заглавной
+     */
+    public abstract boolean isCapitalSquareLetter();
+
+    /**
+     *
+     * @return Номер клетки, на которой стоит фигура
+     */
+    public abstract int getSquare();
+
+    /**
+     *
+     * @return Независимую копию фигуры
+     */
+    public abstract Figure copy();
+
+    /**
+     * Упаковывает состояние фигуры, нужное для отмены хода (см. {@link Board#unmakeMove}): клетку, высоту, верхнюю
+     * шашку и пометку дамки. Этого достаточно, потому что за ход у фигуры меняются только клетка и верхняя шашка,
+     * а шашки добавляются только вниз
+     * @return Упакованное состояние
+     */
+    public abstract long getUndoState();
+
+    /**
+     * Восстанавливает состояние, сохранённое {@link #getUndoState()} до хода
+     * @param state Упакованное состояние
+     */
+    public abstract void restoreUndoState(long state);
+
+    /**
+     * Возвращает неизменяемое состояние фигуры. Если фигура не менялась с прошлого вызова, возвращается тот же
+     * объект, поэтому снимки соседних позиций делят состояния всех фигур, кроме изменившихся
+     * @return Состояние фигуры
+     */
+    public abstract State getState();
+
+    /**
+     * Возвращает фигуре состояние, сохранённое {@link #getState()}
+     * @param state Состояние этой фигуры
+     */
+    public abstract void restoreState(State state);
+
+    /**
+     * Записывает фигуру со всеми пометками и порядковым номером для контрольной точки
+     * (см. {@link Board#writeCheckpoint})
+     * @param out Поток, в который пишется фигура
+     * @throws IOException
+     */
+    public abstract void write(DataOutput out) throws IOException;
+
+    /**
+     *
+     * @return Ключ Зобриста фигуры (см. {@link Zobrist}), для пустой фигуры - 0
+     */
+    public abstract long getZobristKey();
 
     /**
      * Если фигура в данный момент достигла последней для нее вертикали, помечает фигуру дамкой
      * (но не делает ее таковой). В дальнейшем обращение к этой фигуре как к дамке, за исключением того,
-     * что позиция фигуры обозначается, как будто фиугура не дамка
+     * что позиция фигуры обозначается, как будто фиугура не дамка. Горизонталь берётся из клетки, поэтому запись
+     * фигуры при этом не собирается
      */
     public void tagKingIfCorrectPosition() {
+        int rank = getPosition().getRank();
         if (!isKing()
-                && (pos.charAt(1) == '8' && getColour() == Colour.WHITE
-                || pos.charAt(1) == '1' && getColour() == Colour.BLACK)) {
+                && (rank == 7 && getColour() == Colour.WHITE
+                || rank == 0 && getColour() == Colour.BLACK)) {
             tagKing();
         }
     }
@@ -62,6 +171,14 @@ public abstract class Figure {
         taggedAsKing = true;
     }
 
+    /**
+     * Восстанавливает пометку дамки при отмене хода
+     * @param newTaggedAsKing Была ли фигура помечена дамкой
+     */
+    protected void setTaggedAsKing(boolean newTaggedAsKing) {
+        taggedAsKing = newTaggedAsKing;
+    }
+
     /**
      * Проверяет, была ли когда-либо помечена фигура как дамка
      * @return Была ли когда-либо помечена фигура как дамка
@@ -118,15 +235,14 @@ public abstract class Figure {
     }
 
     /**
-     * Смещает позицию по горизонтали и вертикали.
-     * @param pos Позиция, которую надо сместить.
-     * @param biasX Смещение по горизонтали.
-     * @param biasY Смещение по вертикали.
+     * Возвращает порядковый номер, с которым фигура была поставлена на доску.
+     * @return Порядковый номер фигуры.
      */
-    public static void displacePosition(StringBuilder pos, int biasX, int biasY) {
-        char letter = (char) (pos.charAt(0) + biasX);
-        char digit = (char) (pos.charAt(1) + biasY);
-        pos.setLength(0);
-        pos.append(new String(new char[]{letter, digit}));
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int newOrdinal) {
+        this.ordinal = newOrdinal;
     }
 }
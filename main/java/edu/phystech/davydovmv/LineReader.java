@@ -0,0 +1,119 @@
+package edu.phystech.davydovmv;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Построчное чтение из Reader в переиспользуемый буфер. В отличие от BufferedReader.readLine не создаёт
+ * строку на каждую прочитанную строку. Строки разделяются "\n", "\r" или "\r\n".
+ */
+public class LineReader implements LineSource {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder line = new StringBuilder();
+    private int position;
+    private int limit;
+    private boolean skipLineFeed;
+    private long bytesRead;
+
+    public LineReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Чтение с середины текста, например с места, до которого партия уже проверена (см. {@link CheckpointedReplay})
+     * @param reader Источник текста
+     * @param afterCarriageReturn Закончилась ли предыдущая строка символом '\r': тогда '\n' в начале текста
+     *                            считается частью её конца, а не пустой строкой
+     */
+    public LineReader(Reader reader, boolean afterCarriageReturn) {
+        this.reader = reader;
+        skipLineFeed = afterCarriageReturn;
+    }
+
+    /**
+     * Возвращает, сколько байт в кодировке UTF-8 занимают прочитанные строки вместе с концами строк. Если строка
+     * закончилась символом '\r', следующий за ним '\n' учитывается только при чтении следующей строки
+     * (см. {@link #isAfterCarriageReturn()})
+     * @return Количество байт
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return Закончилась ли последняя прочитанная строка символом '\r'
+     */
+    public boolean isAfterCarriageReturn() {
+        return skipLineFeed;
+    }
+
+    private static int getUtf8Length(char[] chars, int start, int end) {
+        int length = end - start;
+        for (int i = start; i < end; ++i) {
+            char symbol = chars[i];
+            if (symbol >= 0x80) {
+                length += symbol < 0x800 || Character.isSurrogate(symbol) ? 1 : 2;
+            }
+        }
+        return length;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int count;
+        do {
+            count = reader.read(buffer);
+        } while (count == 0);
+        if (count == -1) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Читает следующую строку в переиспользуемый буфер
+     * @return Буфер с прочитанной строкой или null, если строки закончились
+     * @throws IOException
+     */
+    @Override
+    public CharSequence readLine() throws IOException {
+        line.setLength(0);
+        boolean readAnything = false;
+        while (true) {
+            if (position == limit && !fillBuffer()) {
+                return readAnything ? line : null;
+            }
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    ++position;
+                    ++bytesRead;
+                    continue;
+                }
+            }
+            readAnything = true;
+            int start = position;
+            while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+                ++position;
+            }
+            line.append(buffer, start, position - start);
+            bytesRead += getUtf8Length(buffer, start, position);
+            if (position < limit) {
+                skipLineFeed = buffer[position] == '\r';
+                ++position;
+                ++bytesRead;
+                return line;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,18 @@
+package edu.phystech.davydovmv;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Источник строк партии: строка с белыми, строка с чёрными, затем по строке на ход.
+ */
+public interface LineSource extends Closeable {
+
+    /**
+     * Читает следующую строку (без символов конца строки). Возвращаемый объект может переиспользоваться источником,
+     * поэтому после следующего вызова readLine его содержимое меняется
+     * @return Прочитанную строку или null, если строки закончились
+     * @throws IOException
+     */
+    CharSequence readLine() throws IOException;
+}
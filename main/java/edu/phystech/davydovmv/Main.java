@@ -1,21 +1,229 @@
 package edu.phystech.davydovmv;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public final class Main {
 
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: java -jar checkers.jar [options] [path [threads]]",
+            "  (no arguments)       check the game from input.txt",
+            "  -f, --file <file>    check a single game file",
+            "  -r, --resume <file>  check a single game file, keeping checkpoints in <file>.ckpt so that",
+            "                       re-checking it after appending moves replays only the new moves",
+            "  -e, --encode <file>  check a single game file and, if it is correct, write its compact binary",
+            "                       record to <file>.twr",
+            "  -b, --binary <file>  check a game from a binary record",
+            "  -d, --decode <file>  print the text record of a game from a binary record",
+            "  -, --stdin           check a single game read from standard input",
+            "  -m, --metrics        print per-phase counters and timings of the rules engine to stderr",
+            "  --metrics-json <file>",
+            "                       write the same counters to <file> as JSON",
+            "  -t, --threads <n>    number of threads for batch mode (default: number of processors)",
+            "  -h, --help           print this message",
+            "  path                 batch mode: a directory, a glob pattern or a corpus file",
+            "                       (games separated by blank lines)");
+
     private Main() { }
 
-    public static void main(String[] args)
-            throws IOException {
+    private static class UsageException extends Exception {
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Проверяет одну партию и печатает итоговую позицию или текст ошибки
+     */
+    private static void checkGame(Board board, PrintStream out) throws IOException {
+        printResult(board, board.check(), out);
+    }
+
+    private static void printResult(Board board, ValidationResult result, PrintStream out) throws IOException {
+        try {
+            if (result.isOk()) {
+                BatchWriter writer = new BatchWriter(out);
+                board.appendAllFigures(writer);
+                writer.flush();
+            } else {
+                out.println(result.getResult().getMessage());
+            }
+        } catch (Board.GeneralErrorException e) {
+            out.println(e.getMessage());
+        }
+    }
+
+    private static void encode(String file, PrintStream out) throws IOException {
+        ValidationResult result;
+        try (LineReader lines = new LineReader(Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8));
+             OutputStream binary = new BufferedOutputStream(Files.newOutputStream(Paths.get(file + ".twr")))) {
+            result = BinaryGame.encode(lines, binary);
+        }
+        if (!result.isOk()) {
+            Files.delete(Paths.get(file + ".twr"));
+        }
+        out.println(result.isOk() ? file + ".twr" : result.getResult().getMessage());
+    }
+
+    private static void checkBinary(String file, boolean decode, PrintStream out) throws IOException {
+        try (InputStream binary = new BufferedInputStream(Files.newInputStream(Paths.get(file)))) {
+            if (decode) {
+                ValidationResult result = BinaryGame.decode(binary, out);
+                if (!result.isOk()) {
+                    out.println(result.getResult().getMessage());
+                }
+            } else {
+                BinaryGame.Result result = BinaryGame.check(binary);
+                printResult(result.getBoard(), result.getValidation(), out);
+            }
+        }
+    }
+
+    private static int parseThreadsCount(String value) throws UsageException {
+        int threadsCount;
+        try {
+            threadsCount = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            threadsCount = 0;
+        }
+        if (threadsCount < 1) {
+            throw new UsageException("threads count must be a positive number: " + value);
+        }
+        return threadsCount;
+    }
+
+    private static String nextArgument(String[] args, int index) throws UsageException {
+        if (index >= args.length) {
+            throw new UsageException("option " + args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static void run(String[] args) throws IOException, UsageException {
+        String file = null;
+        String resumedFile = null;
+        String encodedFile = null;
+        String binaryFile = null;
+        boolean decode = false;
+        boolean stdin = false;
+        boolean metrics = false;
+        String metricsFile = null;
+        String path = null;
+        int threadsCount = 0;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-h":
+                case "--help":
+                    System.out.println(USAGE);
+                    return;
+                case "-f":
+                case "--file":
+                    file = nextArgument(args, ++i);
+                    break;
+                case "-r":
+                case "--resume":
+                    resumedFile = nextArgument(args, ++i);
+                    break;
+                case "-e":
+                case "--encode":
+                    encodedFile = nextArgument(args, ++i);
+                    break;
+                case "-b":
+                case "--binary":
+                    binaryFile = nextArgument(args, ++i);
+                    break;
+                case "-d":
+                case "--decode":
+                    binaryFile = nextArgument(args, ++i);
+                    decode = true;
+                    break;
+                case "-":
+                case "--stdin":
+                    stdin = true;
+                    break;
+                case "-m":
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "--metrics-json":
+                    metricsFile = nextArgument(args, ++i);
+                    break;
+                case "-t":
+                case "--threads":
+                    threadsCount = parseThreadsCount(nextArgument(args, ++i));
+                    break;
+                default:
+                    if (args[i].startsWith("-")) {
+                        throw new UsageException("unknown option: " + args[i]);
+                    } else if (path == null) {
+                        path = args[i];
+                    } else if (threadsCount == 0) {
+                        threadsCount = parseThreadsCount(args[i]);
+                    } else {
+                        throw new UsageException("unexpected argument: " + args[i]);
+                    }
+            }
+        }
+        if ((file != null ? 1 : 0) + (resumedFile != null ? 1 : 0) + (encodedFile != null ? 1 : 0)
+                + (binaryFile != null ? 1 : 0) + (stdin ? 1 : 0) + (path != null ? 1 : 0) > 1) {
+            throw new UsageException("choose one of --file, --resume, --encode, --binary, --decode, --stdin and path");
+        }
+        if (metrics || metricsFile != null) {
+            System.setProperty(BoardMetrics.PROPERTY, "true");
+        }
+        if (encodedFile != null) {
+            encode(encodedFile, System.out);
+        } else if (binaryFile != null) {
+            checkBinary(binaryFile, decode, System.out);
+        } else if (resumedFile != null) {
+            CheckpointedReplay.Result result = new CheckpointedReplay().check(Paths.get(resumedFile));
+            printResult(result.getBoard(), result.getValidation(), System.out);
+        } else if (stdin) {
+            checkGame(new TowersBoard(new LineReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))),
+                    System.out);
+        } else if (path != null) {
+            BatchValidator validator = threadsCount > 0 ? new BatchValidator(threadsCount) : new BatchValidator();
+            if (Files.isRegularFile(Paths.get(path))) {
+                validator.runCorpus(Paths.get(path), System.out);
+            } else {
+                validator.run(path, System.out);
+            }
+        } else {
+            checkGame(new TowersBoard(file != null ? file : "input.txt"), System.out);
+        }
+        if (metrics) {
+            System.err.print(BoardMetrics.summary());
+        }
+        if (metricsFile != null) {
+            Files.write(Paths.get(metricsFile), BoardMetrics.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Без аргументов проверяет партию из input.txt и печатает итоговую позицию или текст ошибки. Партию можно
+     * взять из другого файла (--file) или из стандартного ввода (--stdin). С --resume партия из файла
+     * проверяется с последней контрольной точки (см. {@link CheckpointedReplay}). С --encode, --binary и --decode
+     * партия переводится в двоичную запись, проверяется по ней или переводится обратно в текст
+     * (см. {@link BinaryGame}). Если указан путь, проверяется пакет партий: путь - каталог, glob-шаблон или файл
+     * корпуса (партии, разделённые пустыми строками), количество потоков задаётся вторым аргументом или --threads.
+     * С --metrics и --metrics-json после проверки выдаются замеры движка (см. {@link BoardMetrics}). Полный список -
+     * в --help
+     */
+    public static void main(String[] args) throws IOException {
         try {
-            Board board = new TowersBoard("input.txt");
-            board.run();
-        } catch (Board.BusyCellException
-                 | Board.WhiteCellException
-                 | Board.InvalidMoveException
-                 | Board.GeneralErrorException e) {
-            System.out.println(e.getMessage());
+            run(args);
+        } catch (UsageException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
         }
     }
 }
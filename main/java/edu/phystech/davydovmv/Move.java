@@ -0,0 +1,153 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Ход одного игрока, разобранный из записи: список позиций, через которые проходит фигура, и то, бьёт ли она.
+ * Позиции не копируют текст хода, а ссылаются на участок исходной строки. Объект переиспользуется от хода к ходу,
+ * поэтому разбор хода не создаёт новых объектов. Для строки с начальной расстановкой фигур это просто список позиций.
+ */
+public class Move {
+
+    /**
+     * Позиция из записи хода (например, c3_wb). Ссылается на участок строки, из которой была прочитана.
+     */
+    public static class Position implements CharSequence {
+        private CharSequence line;
+        private int start;
+        private int end;
+        private int square;
+
+        private void set(CharSequence newLine, int newStart, int newEnd) {
+            line = newLine;
+            start = newStart;
+            end = newEnd;
+            square = Bitboard.getSquare(this);
+        }
+
+        /**
+         * @return Номер клетки позиции или -1, если клетка белая
+         */
+        public int getSquare() {
+            return square;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return line.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return line.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return line.subSequence(start, end).toString();
+        }
+    }
+
+    private Position[] positions = new Position[0];
+    private int size;
+    private boolean beating;
+    private Colour figureColour;
+
+    /**
+     * Очищает ход перед разбором новой записи.
+     */
+    public void clear() {
+        size = 0;
+        beating = false;
+        figureColour = null;
+    }
+
+    /**
+     * Добавляет в ход позицию, записанную в line с индекса start до индекса end.
+     * @param line Строка с записью
+     * @param start Начало позиции
+     * @param end Конец позиции (не включительно)
+     */
+    public void addPosition(CharSequence line, int start, int end) {
+        if (size == positions.length) {
+            Position[] newPositions = new Position[Math.max(4, size * 2)];
+            System.arraycopy(positions, 0, newPositions, 0, size);
+            for (int i = size; i < newPositions.length; ++i) {
+                newPositions[i] = new Position();
+            }
+            positions = newPositions;
+        }
+        positions[size++].set(line, start, end);
+    }
+
+    /**
+     * Добавляет в ход позицию, заданную только клеткой, без записи башни (см. {@link #setFigureColour})
+     * @param square Клетка
+     * @param capitalLetter Записывается ли буква клетки заглавной
+     */
+    public void addSquare(Square square, boolean capitalLetter) {
+        String name = square.getName(capitalLetter);
+        addPosition(name, 0, name.length());
+    }
+
+    /**
+     * @param index Номер позиции в ходе
+     * @return Позицию с номером index
+     */
+    public Position getPosition(int index) {
+        return positions[index];
+    }
+
+    /**
+     * @return Количество позиций в ходе
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Бьёт ли фигура в этом ходе (позиции разделены ':', а не '-')
+     */
+    public boolean isBeating() {
+        return beating;
+    }
+
+    /**
+     * @param newBeating Бьёт ли фигура в этом ходе
+     */
+    public void setBeating(boolean newBeating) {
+        beating = newBeating;
+    }
+
+    /**
+     * @return Цвет верхней шашки ходящей фигуры, если ход задан клетками без записи башен, иначе null
+     */
+    public Colour getFigureColour() {
+        return figureColour;
+    }
+
+    /**
+     * Помечает, что ход задан клетками (см. {@link #addSquare}), а не записью башен, как в двоичной записи партии
+     * {@link BinaryGame}. Такой ход проверяется по всем правилам, кроме сверки записи башен с доской: фигура
+     * выбирается по первой клетке и цвету верхней шашки
+     * @param newFigureColour Цвет верхней шашки ходящей фигуры
+     */
+    public void setFigureColour(Colour newFigureColour) {
+        figureColour = newFigureColour;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                result.append(beating ? ':' : '-');
+            }
+            result.append(positions[i]);
+        }
+        return result.toString();
+    }
+}
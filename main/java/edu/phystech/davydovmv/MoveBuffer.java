@@ -0,0 +1,120 @@
+package edu.phystech.davydovmv;
+
+import java.util.Arrays;
+
+/**
+ * Переиспользуемый буфер сгенерированных ходов (см. {@link TowersMoveGenerator}). Ход хранится как номер начальной
+ * клетки и последовательность шагов: для каждого шага - клетка, на которую встаёт фигура, и клетка побитой башни
+ * (-1 для тихого хода). Все ходы лежат в общих массивах, которые растут только при нехватке места, поэтому повторная
+ * генерация в тот же буфер не создаёт объектов.
+ */
+public class MoveBuffer {
+
+    private static final int INITIAL_MOVES_CAPACITY = 64;
+    private static final int INITIAL_STEPS_CAPACITY = 256;
+
+    private Colour colour;
+    private int size;
+    private int[] from = new int[INITIAL_MOVES_CAPACITY];
+    private int[] firstStep = new int[INITIAL_MOVES_CAPACITY + 1];
+    private int[] landings = new int[INITIAL_STEPS_CAPACITY];
+    private int[] captured = new int[INITIAL_STEPS_CAPACITY];
+
+    /**
+     * Очищает буфер перед новой генерацией
+     * @param newColour Цвет, ходы которого будут сгенерированы
+     */
+    public void clear(Colour newColour) {
+        colour = newColour;
+        size = 0;
+    }
+
+    /**
+     * @return Цвет, ходы которого лежат в буфере
+     */
+    public Colour getColour() {
+        return colour;
+    }
+
+    /**
+     * @return Количество ходов в буфере
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Добавляет ход
+     * @param fromSquare Клетка, с которой ходит фигура
+     * @param stepLandings Клетки, на которые фигура встаёт на каждом шаге
+     * @param stepCaptured Клетки побитых на каждом шаге башен (-1 для тихого хода)
+     * @param stepsCount Количество шагов
+     */
+    public void add(int fromSquare, int[] stepLandings, int[] stepCaptured, int stepsCount) {
+        if (size == from.length) {
+            from = Arrays.copyOf(from, size * 2);
+            firstStep = Arrays.copyOf(firstStep, size * 2 + 1);
+        }
+        int begin = firstStep[size];
+        int end = begin + stepsCount;
+        if (end > landings.length) {
+            int capacity = Math.max(end, landings.length * 2);
+            landings = Arrays.copyOf(landings, capacity);
+            captured = Arrays.copyOf(captured, capacity);
+        }
+        System.arraycopy(stepLandings, 0, landings, begin, stepsCount);
+        System.arraycopy(stepCaptured, 0, captured, begin, stepsCount);
+        from[size] = fromSquare;
+        firstStep[++size] = end;
+    }
+
+    /**
+     * @param index Номер хода
+     * @return Клетка, с которой ходит фигура
+     */
+    public int getFrom(int index) {
+        return from[index];
+    }
+
+    /**
+     * @param index Номер хода
+     * @return Количество шагов хода (для тихого хода - 1)
+     */
+    public int getStepsCount(int index) {
+        return firstStep[index + 1] - firstStep[index];
+    }
+
+    /**
+     * @param index Номер хода
+     * @param step Номер шага
+     * @return Клетка, на которую фигура встаёт на шаге step
+     */
+    public int getLanding(int index, int step) {
+        return landings[firstStep[index] + step];
+    }
+
+    /**
+     * @param index Номер хода
+     * @param step Номер шага
+     * @return Клетка башни, побитой на шаге step, или -1, если ход тихий
+     */
+    public int getCaptured(int index, int step) {
+        return captured[firstStep[index] + step];
+    }
+
+    /**
+     * @param index Номер хода
+     * @return Клетка, на которой фигура заканчивает ход
+     */
+    public int getTo(int index) {
+        return landings[firstStep[index + 1] - 1];
+    }
+
+    /**
+     * @param index Номер хода
+     * @return Бьёт ли фигура в этом ходе
+     */
+    public boolean isCapture(int index) {
+        return captured[firstStep[index]] != -1;
+    }
+}
@@ -0,0 +1,94 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Разбор записи башен и ходов за один проход по строке, без регулярных выражений и без создания подстрок.
+ * Позиция записывается как [a-hA-H][1-8]_[bwBW]*, ход - как позиции, разделённые '-' (тихий ход из одной позиции
+ * в другую) или ':' (бой).
+ */
+public class MoveLexer implements MoveParser {
+
+    private static boolean isLetter(char symbol) {
+        return symbol >= 'a' && symbol <= 'h' || symbol >= 'A' && symbol <= 'H';
+    }
+
+    private static boolean isDigit(char symbol) {
+        return symbol >= '1' && symbol <= '8';
+    }
+
+    private static boolean isChecker(char symbol) {
+        return symbol == 'w' || symbol == 'b' || symbol == 'W' || symbol == 'B';
+    }
+
+    /**
+     * Читает позицию, начинающуюся с индекса start
+     * @return Индекс конца позиции или -1, если с индекса start позиция не начинается
+     */
+    private static int readPosition(CharSequence line, int start) {
+        int length = line.length();
+        if (start + 2 >= length
+                || !isLetter(line.charAt(start))
+                || !isDigit(line.charAt(start + 1))
+                || line.charAt(start + 2) != '_') {
+            return -1;
+        }
+        int end = start + 3;
+        while (end < length && isChecker(line.charAt(end))) {
+            ++end;
+        }
+        return end;
+    }
+
+    /**
+     * Читает ход, начинающийся с индекса start
+     * @return Индекс конца хода или -1, если ход записан неверно
+     */
+    private static int readMove(CharSequence line, int start, Move move) {
+        move.clear();
+        int end = readPosition(line, start);
+        if (end == -1 || end == line.length()) {
+            return -1;
+        }
+        move.addPosition(line, start, end);
+        char separator = line.charAt(end);
+        if (separator != '-' && separator != ':') {
+            return -1;
+        }
+        move.setBeating(separator == ':');
+        do {
+            start = end + 1;
+            end = readPosition(line, start);
+            if (end == -1) {
+                return -1;
+            }
+            move.addPosition(line, start, end);
+        } while (separator == ':' && end < line.length() && line.charAt(end) == ':');
+        return end;
+    }
+
+    @Override
+    public void parsePositions(CharSequence line, Move positions) {
+        positions.clear();
+        int start = 0;
+        while (start < line.length()) {
+            int end = readPosition(line, start);
+            if (end == -1) {
+                ++start;
+            } else {
+                positions.addPosition(line, start, end);
+                start = end;
+            }
+        }
+    }
+
+    @Override
+    public int parseMoves(CharSequence line, Move whiteMove, Move blackMove) {
+        int end = readMove(line, 0, whiteMove);
+        if (end == line.length()) {
+            return 1;
+        }
+        if (end == -1 || line.charAt(end) != ' ') {
+            return 0;
+        }
+        return readMove(line, end + 1, blackMove) == line.length() ? 2 : 0;
+    }
+}
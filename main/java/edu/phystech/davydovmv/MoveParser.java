@@ -0,0 +1,23 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Разбор записи позиций и ходов.
+ */
+public interface MoveParser {
+
+    /**
+     * Находит в строке все корректно записанные позиции (например, строку с начальной расстановкой фигур).
+     * @param line Строка
+     * @param positions Ход, в который складываются найденные позиции
+     */
+    void parsePositions(CharSequence line, Move positions);
+
+    /**
+     * Разбирает строку с ходом белых и, если он есть, ходом чёрных, разделёнными пробелом.
+     * @param line Строка с ходами
+     * @param whiteMove Ход, в который записывается ход белых
+     * @param blackMove Ход, в который записывается ход чёрных
+     * @return Количество разобранных ходов (1 или 2) или 0, если строка записана неверно
+     */
+    int parseMoves(CharSequence line, Move whiteMove, Move blackMove);
+}
@@ -0,0 +1,26 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Результат проверки хода или партии без исключений. Каждому результату, кроме OK, соответствует исключение
+ * {@link Board} с тем же текстом, которое бросают методы, проверяющие ходы с исключениями.
+ */
+public enum MoveResult {
+    OK(null),
+    BUSY_CELL("busy cell"),
+    WHITE_CELL("white cell"),
+    INVALID_MOVE("invalid move"),
+    GENERAL_ERROR("general error");
+
+    private final String message;
+
+    MoveResult(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return Текст ошибки, который печатается вместо итоговой позиции, или null для OK
+     */
+    public String getMessage() {
+        return message;
+    }
+}
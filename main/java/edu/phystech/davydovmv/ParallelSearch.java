@@ -0,0 +1,130 @@
+package edu.phystech.davydovmv;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Многопоточный поиск по схеме Lazy SMP: все потоки ищут из одной и той же позиции, каждый на своей копии доски,
+ * и обмениваются результатами только через общую таблицу транспозиций без блокировок (см. {@link TranspositionTable}).
+ * Потоки-помощники начинают углубление с разных глубин, поэтому заполняют таблицу оценками, которые главному
+ * потоку ещё не нужны, и расходятся по дереву. Результат - это результат главного потока, узлы считаются по всем
+ * потокам. Как только главный поток закончил, помощники останавливаются.
+ */
+public class ParallelSearch {
+
+    private final TowersBoard board;
+    private final TranspositionTable table;
+    private final int threadsCount;
+
+    /**
+     * @param board Доска, в позиции которой ищется ход (не меняется)
+     * @param table Таблица транспозиций, общая для всех потоков
+     * @param threadsCount Количество потоков, включая главный
+     */
+    public ParallelSearch(TowersBoard board, TranspositionTable table, int threadsCount) {
+        if (threadsCount < 1) {
+            throw new IllegalArgumentException("threads count must be positive: " + threadsCount);
+        }
+        this.board = board;
+        this.table = table;
+        this.threadsCount = threadsCount;
+    }
+
+    /**
+     * Ищет лучший ход (см. {@link AlphaBetaSearch#search(Colour, int, long, long)})
+     * @param colour Цвет стороны, которая ходит
+     * @param maxDepth Наибольшая глубина в полуходах
+     * @param timeLimitMillis Ограничение по времени в миллисекундах, Long.MAX_VALUE - без ограничения
+     * @param maxNodes Ограничение по количеству позиций главного потока, Long.MAX_VALUE - без ограничения
+     * @return Итог поиска главного потока с количеством узлов всех потоков
+     */
+    public AlphaBetaSearch.Result search(Colour colour, int maxDepth, long timeLimitMillis, long maxNodes) {
+        table.newSearch();
+        AtomicBoolean stopSignal = new AtomicBoolean();
+        AlphaBetaSearch.Result[] helperResults = new AlphaBetaSearch.Result[threadsCount - 1];
+        Thread[] helpers = new Thread[threadsCount - 1];
+        for (int i = 0; i < helpers.length; ++i) {
+            int helper = i;
+            AlphaBetaSearch search = new AlphaBetaSearch(new TowersBoard(board), table, stopSignal);
+            int firstDepth = 2 + helper % 2;
+            helpers[i] = new Thread(() -> helperResults[helper] =
+                    search.search(colour, firstDepth, maxDepth, timeLimitMillis, Long.MAX_VALUE));
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        AlphaBetaSearch.Result result = new AlphaBetaSearch(new TowersBoard(board), table, stopSignal)
+                .search(colour, 1, maxDepth, timeLimitMillis, maxNodes);
+        stopSignal.set(true);
+        long nodes = result.getNodes();
+        for (int i = 0; i < helpers.length; ++i) {
+            try {
+                helpers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            nodes += helperResults[i].getNodes();
+        }
+        return new AlphaBetaSearch.Result(result.getBestMove(), result.getScore(), result.getDepth(), nodes,
+                result.getNanos());
+    }
+
+    /**
+     * Переигрывает партию из файла и возвращает позиции после каждой строки с ходами (и начальную), до первой
+     * ошибки. Во всех позициях ходят белые
+     */
+    static List<TowersBoard> readPositions(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        List<TowersBoard> positions = new ArrayList<>();
+        if (lines.size() < 2) {
+            return positions;
+        }
+        TowersBoard board = new TowersBoard(lines.get(0), lines.get(1));
+        positions.add(new TowersBoard(board));
+        for (String line : lines.subList(2, lines.size())) {
+            if (board.tryMakeMoves(line) != MoveResult.OK) {
+                break;
+            }
+            positions.add(new TowersBoard(board));
+        }
+        return positions;
+    }
+
+    private static double searchAll(List<TowersBoard> positions, int depth, int threadsCount) {
+        double totalSeconds = 0;
+        long totalNodes = 0;
+        for (TowersBoard position : positions) {
+            AlphaBetaSearch.Result result = new ParallelSearch(position, new TranspositionTable(64), threadsCount)
+                    .search(Colour.WHITE, depth, Long.MAX_VALUE, Long.MAX_VALUE);
+            totalSeconds += result.getNanos() / 1e9;
+            totalNodes += result.getNodes();
+        }
+        System.out.printf("threads %d: depth %d, %d positions, %d nodes, %.3f s, %.0f nodes/s%n",
+                threadsCount, depth, positions.size(), totalNodes, totalSeconds, totalNodes / totalSeconds);
+        return totalSeconds;
+    }
+
+    /**
+     * Замеряет ускорение: ищет до глубины из первого аргумента во всех позициях партий из аргументов после второго
+     * сначала в один поток, затем в количество потоков из второго аргумента, и печатает отношение времён.
+     * Для каждого прогона таблица создаётся заново, первый однопоточный прогон только прогревает JIT
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = Integer.parseInt(args[0]);
+        int threadsCount = Integer.parseInt(args[1]);
+        List<TowersBoard> positions = new ArrayList<>();
+        for (int i = 2; i < args.length; ++i) {
+            positions.addAll(readPositions(Paths.get(args[i])));
+        }
+        searchAll(positions, depth, 1);
+        double singleThreadSeconds = searchAll(positions, depth, 1);
+        double parallelSeconds = searchAll(positions, depth, threadsCount);
+        System.out.printf("speedup: %.2f%n", singleThreadSeconds / parallelSeconds);
+    }
+}
@@ -0,0 +1,130 @@
+package edu.phystech.davydovmv;
+
+import java.io.IOException;
+
+/**
+ * Подсчёт листьев дерева ходов до заданной глубины (perft). Ходы берутся из {@link TowersMoveGenerator} и делаются
+ * и отменяются на одной и той же доске через {@link Board#makeMove(MoveBuffer, int, UndoRecord)} и
+ * {@link Board#unmakeMove}, поэтому perft измеряет скорость генератора и доски. {@link #perftWithChecks} вместо
+ * этого делает каждый ход через обычные проверки доски на её копии и проверяет, что генератор и доска согласованы.
+ */
+public final class Perft {
+
+    private final MoveBuffer[] buffers;
+    private final UndoRecord[] undoRecords;
+    private final StringBuilder notation = new StringBuilder();
+
+    /**
+     * @param maxDepth Наибольшая глубина, до которой будет вызываться {@link #perft}
+     */
+    public Perft(int maxDepth) {
+        buffers = new MoveBuffer[maxDepth + 1];
+        undoRecords = new UndoRecord[maxDepth + 1];
+        for (int i = 0; i <= maxDepth; ++i) {
+            buffers[i] = new MoveBuffer();
+            undoRecords[i] = new UndoRecord();
+        }
+    }
+
+    private static Colour getOppositeColour(Colour colour) {
+        return colour == Colour.WHITE ? Colour.BLACK : Colour.WHITE;
+    }
+
+    /**
+     * Считает позиции, которые получаются из текущей позиции доски ровно за depth полуходов
+     * @param board Доска (после подсчёта возвращается в исходную позицию)
+     * @param colour Цвет стороны, которая ходит первой
+     * @param depth Глубина в полуходах
+     * @return Количество листьев
+     */
+    public long perft(TowersBoard board, Colour colour, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        MoveBuffer moves = buffers[depth];
+        UndoRecord undo = undoRecords[depth];
+        int movesCount = new TowersMoveGenerator(board).generate(colour, moves);
+        long nodes = 0;
+        for (int i = 0; i < movesCount; ++i) {
+            board.makeMove(moves, i, undo);
+            nodes += perft(board, getOppositeColour(colour), depth - 1);
+            board.unmakeMove(undo);
+        }
+        return nodes;
+    }
+
+    /**
+     * Считает то же, что и {@link #perft}, но каждый ход записывается в нотации и делается через обычные проверки
+     * доски на её копии. Если доска отвергает сгенерированный ход, бросает IllegalStateException
+     * @param board Доска (не меняется)
+     * @param colour Цвет стороны, которая ходит первой
+     * @param depth Глубина в полуходах
+     * @return Количество листьев
+     */
+    public long perftWithChecks(TowersBoard board, Colour colour, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        MoveBuffer moves = buffers[depth];
+        TowersMoveGenerator generator = new TowersMoveGenerator(board);
+        int movesCount = generator.generate(colour, moves);
+        long nodes = 0;
+        for (int i = 0; i < movesCount; ++i) {
+            notation.setLength(0);
+            generator.appendNotation(moves, i, notation);
+            TowersBoard child = new TowersBoard(board);
+            try {
+                child.makeMove(notation, colour);
+            } catch (Board.BusyCellException
+                     | Board.WhiteCellException
+                     | Board.InvalidMoveException
+                     | Board.GeneralErrorException e) {
+                throw new IllegalStateException("generated move " + notation + " was rejected: " + e.getMessage());
+            }
+            nodes += perftWithChecks(child, getOppositeColour(colour), depth - 1);
+        }
+        return nodes;
+    }
+
+    private static void report(String name, TowersBoard board, int maxDepth, boolean withChecks) {
+        Perft perft = new Perft(maxDepth);
+        for (int depth = 1; depth <= maxDepth; ++depth) {
+            long startTime = System.nanoTime();
+            long nodes = withChecks
+                    ? perft.perftWithChecks(board, Colour.WHITE, depth)
+                    : perft.perft(board, Colour.WHITE, depth);
+            double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+            System.out.printf("%s depth %d: %d nodes, %.3f s, %.0f nodes/s%n",
+                    name, depth, nodes, seconds, nodes / seconds);
+        }
+    }
+
+    /**
+     * Печатает perft до глубины из первого аргумента для начальной позиции и для позиций, которыми заканчиваются
+     * партии из остальных аргументов. С ключом --checks ходы делаются через проверки доски
+     */
+    public static void main(String[] args) throws IOException {
+        int first = 0;
+        boolean withChecks = false;
+        if (args[first].equals("--checks")) {
+            withChecks = true;
+            ++first;
+        }
+        int maxDepth = Integer.parseInt(args[first]);
+        report("start", new TowersBoard(TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS),
+                maxDepth, withChecks);
+        for (int i = first + 1; i < args.length; ++i) {
+            TowersBoard board = new TowersBoard(args[i]);
+            try {
+                board.validate();
+            } catch (Board.BusyCellException
+                     | Board.WhiteCellException
+                     | Board.InvalidMoveException
+                     | Board.GeneralErrorException e) {
+                System.out.println(args[i] + ": " + e.getMessage());
+                continue;
+            }
+            report(args[i], board, maxDepth, withChecks);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.phystech.davydovmv;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор записи позиций и ходов с помощью регулярных выражений. Паттерны компилируются один раз при создании объекта.
+ * Работает медленнее {@link MoveLexer} и используется как эталон при его проверке.
+ */
+public class RegexMoveParser implements MoveParser {
+
+    private final Pattern positionPattern;
+    private final Pattern movePattern;
+    private final Pattern twoSideMovePattern;
+    private final Pattern separatorPattern = Pattern.compile("[:-]");
+
+    /**
+     * @param correctPositionPattern Регулярное выражение для записи одной позиции
+     */
+    public RegexMoveParser(String correctPositionPattern) {
+        String correctMovePattern = "((".concat(correctPositionPattern).concat(":)+").concat(correctPositionPattern)
+                .concat(")|(").concat(correctPositionPattern).concat("-").concat(correctPositionPattern)
+                .concat(")");
+        positionPattern = Pattern.compile(correctPositionPattern);
+        movePattern = Pattern.compile(correctMovePattern);
+        twoSideMovePattern = Pattern.compile("(".concat(correctMovePattern).concat(") (").concat(correctMovePattern)
+                .concat(")"));
+    }
+
+    private void parsePositions(CharSequence line, int start, int end, Move positions) {
+        positions.clear();
+        Matcher matcher = positionPattern.matcher(line).region(start, end);
+        while (matcher.find()) {
+            positions.addPosition(line, matcher.start(), matcher.end());
+        }
+    }
+
+    private void parseMove(CharSequence line, int start, int end, Move move) {
+        parsePositions(line, start, end, move);
+        Matcher matcher = separatorPattern.matcher(line).region(start, end);
+        move.setBeating(matcher.find() && line.charAt(matcher.start()) == ':');
+    }
+
+    @Override
+    public void parsePositions(CharSequence line, Move positions) {
+        parsePositions(line, 0, line.length(), positions);
+    }
+
+    @Override
+    public int parseMoves(CharSequence line, Move whiteMove, Move blackMove) {
+        if (!twoSideMovePattern.matcher(line).matches() && !movePattern.matcher(line).matches()) {
+            return 0;
+        }
+        Matcher matcher = movePattern.matcher(line);
+        int count = 0;
+        if (matcher.find()) {
+            parseMove(line, matcher.start(), matcher.end(), whiteMove);
+            ++count;
+        }
+        if (matcher.find()) {
+            parseMove(line, matcher.start(), matcher.end(), blackMove);
+            ++count;
+        }
+        return count;
+    }
+}
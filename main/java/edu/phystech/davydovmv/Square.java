@@ -0,0 +1,107 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Клетка доски. Для каждой из 32 чёрных клеток заранее создан единственный объект (см. {@link #of(int)}), поэтому
+ * клетки можно сравнивать по ссылке. Запись клетки со строчной и с заглавной буквой тоже посчитана заранее, так что
+ * при перемещении фигуры ничего не собирается из символов и не переводится в другой регистр.
+ * Белые клетки тоже созданы заранее, но их номер -1: на белой клетке фигура может оказаться только в начальной
+ * расстановке. Такая фигура хранится в списке переполнения {@link Bitboard}, не ходит и не может быть побита,
+ * а клетка нужна, чтобы фигуру можно было найти по записи и вывести.
+ */
+public final class Square {
+
+    private static final Square[] SQUARES = new Square[Bitboard.SQUARES_COUNT];
+    private static final Square[] WHITE_SQUARES = new Square[Bitboard.SQUARES_COUNT];
+
+    static {
+        for (int rank = 0; rank < 8; ++rank) {
+            for (int file = 0; file < 8; ++file) {
+                int index = Bitboard.getSquare(file, rank);
+                if (index != -1) {
+                    SQUARES[index] = new Square(index, file, rank);
+                } else {
+                    WHITE_SQUARES[rank * 4 + file / 2] = new Square(-1, file, rank);
+                }
+            }
+        }
+    }
+
+    private final int index;
+    private final int file;
+    private final int rank;
+    private final String name;
+    private final String capitalName;
+
+    private Square(int index, int file, int rank) {
+        this.index = index;
+        this.file = file;
+        this.rank = rank;
+        char digit = (char) ('1' + rank);
+        name = new String(new char[]{(char) ('a' + file), digit});
+        capitalName = new String(new char[]{(char) ('A' + file), digit});
+    }
+
+    /**
+     * @param index Номер клетки (см. {@link Bitboard})
+     * @return Клетку с номером index
+     */
+    public static Square of(int index) {
+        return SQUARES[index];
+    }
+
+    /**
+     * @param file Горизонталь (0 - a, 7 - h)
+     * @param rank Вертикаль (0 - 1, 7 - 8)
+     * @return Клетку (для белой клетки - клетку с номером -1)
+     */
+    public static Square of(int file, int rank) {
+        int index = Bitboard.getSquare(file, rank);
+        return index == -1 ? WHITE_SQUARES[rank * 4 + file / 2] : SQUARES[index];
+    }
+
+    /**
+     * Возвращает клетку по её записи. Учитываются только первые 2 символа записи, регистр буквы не важен.
+     * @param position Запись позиции на доске (например, c3 или C3_wb)
+     * @return Клетку (для белой клетки - клетку с номером -1)
+     */
+    public static Square of(CharSequence position) {
+        return of(Character.toLowerCase(position.charAt(0)) - 'a', position.charAt(1) - '1');
+    }
+
+    /**
+     * @return Номер клетки или -1, если клетка белая
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return Горизонталь клетки (0 - a, 7 - h)
+     */
+    public int getFile() {
+        return file;
+    }
+
+    /**
+     * @return Вертикаль клетки (0 - 1, 7 - 8)
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * @param capitalLetter Записывать ли букву клетки заглавной (так записываются дамки)
+     * @return Запись клетки, например c3 или C3
+     */
+    public String getName(boolean capitalLetter) {
+        return capitalLetter ? capitalName : name;
+    }
+
+    /**
+     * @return Запись клетки со строчной буквой
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -1,46 +1,165 @@
 package edu.phystech.davydovmv;
 
-import java.util.ArrayDeque;
-import java.util.Objects;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
+/**
+ * Башня из шашек. Шашки хранятся в упакованном виде: i-й бит colours равен 1, если i-я сверху шашка чёрная,
+ * i-й бит kings равен 1, если i-я сверху шашка - дамка, i-й бит capitalLetters равен 1, если i-я сверху шашка
+ * записывается заглавной буквой. Последние две маски расходятся только у шашек, снятых с башни, которая лишь
+ * помечена дамкой: такая шашка записывается как дамка, но остаётся простой. В башне может быть не более 32 шашек.
+ */
 public class Tower extends Figure {
-    private ArrayDeque<Checker> checkers;
 
-    public Tower(Colour colour, String position) {
-        checkers = new ArrayDeque<>();
+    private int height;
+    private int colours;
+    private int kings;
+    private int capitalLetters;
+    private Square square;
+    private boolean capitalSquareLetter;
+    private boolean positionChanged;
+    /**
+     * Последнее выданное {@link #getState()} состояние; выдаётся снова, пока башня не изменилась
+     */
+    private TowerState state;
+
+    /**
+     * Состояние башни: упакованные шашки, клетка и пометки фигуры
+     */
+    private static final class TowerState extends State {
+        private final int height;
+        private final int colours;
+        private final int kings;
+        private final int capitalLetters;
+        private final Square square;
+        private final boolean capitalSquareLetter;
+        private final Colour colour;
+        private final boolean taggedAsKing;
+        private final boolean taggedAsBeaten;
+
+        TowerState(Tower tower) {
+            super(tower);
+            height = tower.height;
+            colours = tower.colours;
+            kings = tower.kings;
+            capitalLetters = tower.capitalLetters;
+            square = tower.square;
+            capitalSquareLetter = tower.capitalSquareLetter;
+            colour = tower.getColour();
+            taggedAsKing = tower.isTaggedAsKing();
+            taggedAsBeaten = tower.wasBeaten();
+        }
+
+        boolean matches(Tower tower) {
+            return height == tower.height
+                    && colours == tower.colours
+                    && kings == tower.kings
+                    && capitalLetters == tower.capitalLetters
+                    && square == tower.square
+                    && capitalSquareLetter == tower.capitalSquareLetter
+                    && colour == tower.getColour()
+                    && taggedAsKing == tower.isTaggedAsKing()
+                    && taggedAsBeaten == tower.wasBeaten();
+        }
+    }
+
+    private Tower() { }
+
+    /**
+     * @param colour Цвет верхней шашки башни
+     * @param position Запись башни, например c3_wb
+     * @throws IllegalArgumentException Если в башне больше {@link Zobrist#MAX_HEIGHT} шашек
+     */
+    public Tower(Colour colour, CharSequence position) {
+        if (getHeight(position) > Zobrist.MAX_HEIGHT) {
+            throw new IllegalArgumentException("tower is too tall: " + position);
+        }
         setColour(colour);
         if (position.length() == 2) {
-            checkers.add(new Checker(colour, position));
+            boolean king = Character.isUpperCase(position.charAt(0));
+            offerChecker(colour, king, king);
         } else {
-            String place = position.substring(0, 2);
-            String allCheckersInPosition = position.substring(3);
-            for (int i = 0; i < allCheckersInPosition.length(); ++i) {
-                switch (allCheckersInPosition.charAt(i)) {
-                    case 'w':
-                        checkers.offerLast(new Checker(Colour.WHITE, place.toLowerCase()));
-                        break;
-                    case 'W':
-                        checkers.offerLast(new Checker(Colour.WHITE, place.toUpperCase()));
-                        break;
-                    case 'b':
-                        checkers.offerLast(new Checker(Colour.BLACK, place.toLowerCase()));
-                        break;
-                    case 'B':
-                        checkers.offerLast(new Checker(Colour.BLACK, place.toUpperCase()));
-                        break;
-                }
+            for (int i = 3; i < position.length(); ++i) {
+                char checker = position.charAt(i);
+                boolean king = Character.isUpperCase(checker);
+                offerChecker(getColour(checker), king, king);
             }
-            setPosition(position);
         }
+        setPosition(Square.of(position), Character.isUpperCase(position.charAt(0)));
+    }
+
+    /**
+     * Копирует башню other
+     * @param other Копируемая башня
+     */
+    public Tower(Tower other) {
+        super(other);
+        height = other.height;
+        colours = other.colours;
+        kings = other.kings;
+        capitalLetters = other.capitalLetters;
+        square = other.square;
+        capitalSquareLetter = other.capitalSquareLetter;
+        positionChanged = other.positionChanged;
+    }
+
+    /**
+     * @param position Запись башни
+     * @return Количество шашек в записи башни
+     */
+    static int getHeight(CharSequence position) {
+        return position.length() == 2 ? 1 : Math.max(position.length() - 3, 0);
+    }
+
+    private static Colour getColour(char checker) {
+        return checker == 'b' || checker == 'B' ? Colour.BLACK : Colour.WHITE;
+    }
+
+    static char getChecker(boolean black, boolean king) {
+        if (black) {
+            return king ? 'B' : 'b';
+        }
+        return king ? 'W' : 'w';
     }
 
     /**
      *
-     * @return Позицию на доске
+     * @return Клетку, на которой стоит башня
      */
     @Override
-    public String getBoardPosition() {
-        return checkers.getFirst().getBoardPosition();
+    public Square getPosition() {
+        return square;
+    }
+
+    /**
+     *
+     * @return Позицию в записи хода. Запись собирается из упакованных шашек только после того, как башня изменилась
+     */
+    @Override
+    public StringBuilder getFullPosition() {
+        StringBuilder pos = super.getFullPosition();
+        if (positionChanged) {
+            pos.setLength(0);
+            pos.append(square.getName(capitalSquareLetter)).append('_');
+            for (int i = 0; i < height; ++i) {
+                pos.append(getChecker((colours & (1 << i)) != 0, (capitalLetters & (1 << i)) != 0));
+            }
+            positionChanged = false;
+        }
+        return pos;
+    }
+
+    /**
+     *
+     * @return Цвет верхней шашки башни или null, если башня пуста
+     */
+    @Override
+    public Colour getTopColour() {
+        if (isInvalid()) {
+            return null;
+        }
+        return (colours & 1) != 0 ? Colour.BLACK : Colour.WHITE;
     }
 
     /**
@@ -49,20 +168,203 @@ public class Tower extends Figure {
      */
     @Override
     public boolean isKing() {
-        return checkers.getFirst().isKing() || isTaggedAsKing();
+        return (kings & 1) != 0 || isTaggedAsKing();
+    }
+
+    /**
+     *
+     * @return Номер клетки, на которой стоит башня
+     */
+    @Override
+    public int getSquare() {
+        return square.getIndex();
+    }
+
+    private static final int HEIGHT_BITS = 6;
+    private static final int TOP_COLOUR_BIT = HEIGHT_BITS;
+    private static final int TOP_KING_BIT = HEIGHT_BITS + 1;
+    private static final int TOP_CAPITAL_LETTER_BIT = HEIGHT_BITS + 2;
+    private static final int TAGGED_AS_KING_BIT = HEIGHT_BITS + 3;
+    private static final int CAPITAL_SQUARE_LETTER_BIT = HEIGHT_BITS + 4;
+    private static final int SQUARE_SHIFT = HEIGHT_BITS + 5;
+
+    /**
+     *
+     * @return Высоту, верхнюю шашку, пометку дамки и клетку башни, упакованные в одно число
+     */
+    @Override
+    public long getUndoState() {
+        return height
+                | (long) (colours & 1) << TOP_COLOUR_BIT
+                | (long) (kings & 1) << TOP_KING_BIT
+                | (long) (capitalLetters & 1) << TOP_CAPITAL_LETTER_BIT
+                | (isTaggedAsKing() ? 1L : 0L) << TAGGED_AS_KING_BIT
+                | (capitalSquareLetter ? 1L : 0L) << CAPITAL_SQUARE_LETTER_BIT
+                | (long) square.getIndex() << SQUARE_SHIFT;
     }
 
     /**
-     * Делает позицию в записи хода равной newPos и меняет позицию каждой шашки на позицию на доске,
-     * соответствующую newPos
-     * @param newPos Новая позиция в запси хода
+     * Восстанавливает башню по состоянию до хода. Если с тех пор у башни забрали верхнюю шашку, она возвращается
+     * наверх, а шашки, добавленные вниз, убираются
+     * @param state Состояние, сохранённое {@link #getUndoState()}
      */
     @Override
-    public void setPosition(String newPos) {
-        for (var checker: checkers) {
-            checker.setPosition(checker.isKing() ? newPos.substring(0, 2).toUpperCase() : newPos.substring(0, 2));
+    public void restoreUndoState(long state) {
+        int oldHeight = (int) (state & ((1 << HEIGHT_BITS) - 1));
+        if (height < oldHeight) {
+            colours <<= 1;
+            kings <<= 1;
+            capitalLetters <<= 1;
+            ++height;
         }
-        super.setPosition(newPos);
+        int mask = oldHeight == Zobrist.MAX_HEIGHT ? -1 : (1 << oldHeight) - 1;
+        colours = (colours & mask & ~1) | (int) (state >>> TOP_COLOUR_BIT & 1);
+        kings = (kings & mask & ~1) | (int) (state >>> TOP_KING_BIT & 1);
+        capitalLetters = (capitalLetters & mask & ~1) | (int) (state >>> TOP_CAPITAL_LETTER_BIT & 1);
+        height = oldHeight;
+        setTaggedAsKing((state >>> TAGGED_AS_KING_BIT & 1) != 0);
+        capitalSquareLetter = (state >>> CAPITAL_SQUARE_LETTER_BIT & 1) != 0;
+        int index = (int) (state >> SQUARE_SHIFT);
+        if (index != square.getIndex()) {
+            square = Square.of(index);
+        }
+        positionChanged = true;
+    }
+
+    /**
+     * Состояние не сбрасывается при каждом изменении башни, а сравнивается с башней при следующем вызове: это
+     * несколько сравнений чисел, зато ни один метод, меняющий башню, не нужно об этом предупреждать
+     * @return Неизменяемое состояние башни
+     */
+    @Override
+    public State getState() {
+        if (state == null || !state.matches(this)) {
+            state = new TowerState(this);
+        }
+        return state;
+    }
+
+    /**
+     *
+     * @param newState Состояние, выданное этой башней через {@link #getState()}
+     */
+    @Override
+    public void restoreState(State newState) {
+        TowerState towerState = (TowerState) newState;
+        if (towerState.getFigure() != this) {
+            throw new IllegalArgumentException("state belongs to another figure");
+        }
+        height = towerState.height;
+        colours = towerState.colours;
+        kings = towerState.kings;
+        capitalLetters = towerState.capitalLetters;
+        square = towerState.square;
+        capitalSquareLetter = towerState.capitalSquareLetter;
+        setColour(towerState.colour);
+        setTaggedAsKing(towerState.taggedAsKing);
+        if (towerState.taggedAsBeaten) {
+            tagBeaten();
+        } else {
+            tagUnbeaten();
+        }
+        positionChanged = true;
+        state = towerState;
+    }
+
+    private static final int CAPITAL_SQUARE_LETTER_FLAG = 1;
+    private static final int TAGGED_AS_KING_FLAG = 1 << 1;
+    private static final int TAGGED_AS_BEATEN_FLAG = 1 << 2;
+    private static final int COLOUR_SHIFT = 3;
+    private static final Colour[] COLOURS = Colour.values();
+
+    /**
+     * Записывает башню в 19 байт: клетку (горизонталь * 8 + вертикаль, чтобы не терять белые клетки), пометки,
+     * высоту, маски шашек и порядковый номер
+     * @param out Поток, в который пишется башня
+     * @throws IOException
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Colour colour = getColour();
+        out.writeByte(square.getFile() << 3 | square.getRank());
+        out.writeByte((capitalSquareLetter ? CAPITAL_SQUARE_LETTER_FLAG : 0)
+                | (isTaggedAsKing() ? TAGGED_AS_KING_FLAG : 0)
+                | (wasBeaten() ? TAGGED_AS_BEATEN_FLAG : 0)
+                | (colour == null ? 0 : colour.ordinal() + 1) << COLOUR_SHIFT);
+        out.writeByte(height);
+        out.writeInt(colours);
+        out.writeInt(kings);
+        out.writeInt(capitalLetters);
+        out.writeInt(getOrdinal());
+    }
+
+    /**
+     * Читает башню, записанную {@link #write}
+     * @param in Поток с башней
+     * @return Прочитанную башню
+     * @throws IOException Если запись повреждена
+     */
+    static Tower read(DataInput in) throws IOException {
+        int squareCode = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        int colourCode = flags >>> COLOUR_SHIFT;
+        Tower tower = new Tower();
+        tower.height = in.readUnsignedByte();
+        if (squareCode >= 64 || colourCode > COLOURS.length || tower.height > Zobrist.MAX_HEIGHT) {
+            throw new IOException("corrupted tower");
+        }
+        tower.colours = in.readInt();
+        tower.kings = in.readInt();
+        tower.capitalLetters = in.readInt();
+        tower.setOrdinal(in.readInt());
+        tower.square = Square.of(squareCode >>> 3, squareCode & 7);
+        tower.capitalSquareLetter = (flags & CAPITAL_SQUARE_LETTER_FLAG) != 0;
+        tower.setTaggedAsKing((flags & TAGGED_AS_KING_FLAG) != 0);
+        if ((flags & TAGGED_AS_BEATEN_FLAG) != 0) {
+            tower.tagBeaten();
+        }
+        tower.setColour(colourCode == 0 ? null : COLOURS[colourCode - 1]);
+        tower.positionChanged = true;
+        return tower;
+    }
+
+    /**
+     *
+     * @return Копию башни
+     */
+    @Override
+    public Tower copy() {
+        return new Tower(this);
+    }
+
+    /**
+     *
+     * @return Ключ Зобриста башни
+     */
+    @Override
+    public long getZobristKey() {
+        return Zobrist.getTowerKey(square, height, colours, kings, isTaggedAsKing());
+    }
+
+    /**
+     * Переносит башню на клетку newSquare. Содержимое башни при этом не меняется
+     * @param newSquare Новая клетка
+     * @param newCapitalSquareLetter Записывается ли буква клетки заглавной
+     */
+    @Override
+    public void setPosition(Square newSquare, boolean newCapitalSquareLetter) {
+        square = newSquare;
+        capitalSquareLetter = newCapitalSquareLetter;
+        positionChanged = true;
+    }
+
+    /**
+     *
+     * @return Записывается ли буква клетки башни заглавной
+     */
+    @Override
+    public boolean isCapitalSquareLetter() {
+        return capitalSquareLetter;
     }
 
     /**
@@ -70,26 +372,18 @@ public class Tower extends Figure {
      */
     @Override
     protected void makeKing() {
-        checkers.getFirst().makeKing();
-        char kingChar = getColour() == Colour.WHITE ? 'W' : 'B';
-        setPosition(getFullPosition().substring(0, 3) + kingChar + getFullPosition().substring(4));
+        kings |= 1;
+        capitalLetters |= 1;
+        positionChanged = true;
     }
 
     /**
-     * Если башню били на этом ходу, меняет цвет и позицию башни на значения, которые должны быть у башни после побития.
-     * Если башня пуста, обнуляет позицию и цвет башни (то есть делает башню невалидной).
+     * Если башню били на этом ходу, меняет цвет башни на цвет новой верхней шашки.
+     * Если башня пуста, обнуляет цвет башни (то есть делает башню невалидной).
      */
     @Override
     public void unlock() {
-        if (isInvalid()) {
-            setPosition(null);
-            setColour(null);
-        } else {
-            if (wasBeaten()) {
-                setPosition(getFullPosition().substring(0, 3) + getFullPosition().substring(4));
-            }
-            setColour(checkers.getFirst().getColour());
-        }
+        setColour(getTopColour());
         tagUnbeaten();
     }
 
@@ -106,34 +400,81 @@ public class Tower extends Figure {
         if (isInvalid() || tower.isInvalid()) {
             return false;
         }
-        return checkers.getFirst().equals(tower.checkers.getFirst());
+        return square == tower.square && getTopColour() == tower.getTopColour();
     }
 
     /**
-     *
+     * Хеш согласован с {@link #equals}: зависит только от клетки и цвета верхней шашки. Хеш меняется, когда башня
+     * ходит или теряет верхнюю шашку, поэтому держать башню в хеш-таблице можно, только пока она стоит на месте.
+     * Доска ищет фигуры не через equals, а по клетке в {@link Bitboard}
      * @return Хеш башни
      */
     @Override
     public int hashCode() {
-        return Objects.hash(getFullPosition());
+        Colour topColour = getTopColour();
+        return 31 * square.getIndex() + (topColour == null ? 0 : topColour.ordinal() + 1);
     }
 
-    private Checker removeChecker() {
-        return checkers.removeFirst();
+    private void removeChecker() {
+        colours >>>= 1;
+        kings >>>= 1;
+        capitalLetters >>>= 1;
+        --height;
+        positionChanged = true;
     }
 
-    private void offerChecker(Checker checker) {
-        checkers.offerLast(checker);
+    private void offerChecker(Colour colour, boolean king, boolean capitalLetter) {
+        if (height == Zobrist.MAX_HEIGHT) {
+            throw new IllegalStateException("tower is too tall");
+        }
+        if (colour == Colour.BLACK) {
+            colours |= 1 << height;
+        }
+        if (king) {
+            kings |= 1 << height;
+        }
+        if (capitalLetter) {
+            capitalLetters |= 1 << height;
+        }
+        ++height;
+        positionChanged = true;
     }
 
     /**
-     * Берет верхнюю шашку у @tower и перемещает в низ башни. При этом @pos у обворованной башни меняется,
-     * а у ворующей башни - нет
+     * Берет верхнюю шашку у @tower и перемещает в низ башни. Шашка записывается заглавной буквой, если дамкой
+     * считалась обворованная башня
      * @param tower Башня, у которой крадется верхняя шашка
+     * @throws IllegalStateException Если башня уже максимальной высоты (см. {@link #canTakeChecker()})
      */
     public void stealChecker(Tower tower) {
-        Checker stolenChecker = tower.removeChecker();
-        offerChecker(stolenChecker);
+        Colour colour = tower.getTopColour();
+        boolean king = (tower.kings & 1) != 0;
+        boolean capitalLetter = tower.isKing();
+        tower.removeChecker();
+        offerChecker(colour, king, capitalLetter);
+    }
+
+    /**
+     * @return Можно ли положить в низ башни ещё одну шашку, не превысив {@link Zobrist#MAX_HEIGHT}
+     */
+    public boolean canTakeChecker() {
+        return height < Zobrist.MAX_HEIGHT;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getColours() {
+        return colours;
+    }
+
+    int getKings() {
+        return kings;
+    }
+
+    int getCapitalLetters() {
+        return capitalLetters;
     }
 
     /**
@@ -142,6 +483,6 @@ public class Tower extends Figure {
      * @return Можно ли с этой башней взаимодействовать.
      */
     public boolean isInvalid() {
-        return checkers.isEmpty();
+        return height == 0;
     }
 }
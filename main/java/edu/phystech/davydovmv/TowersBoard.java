@@ -1,75 +1,130 @@
 package edu.phystech.davydovmv;
 
 import lombok.Getter;
+import java.io.DataInput;
 import java.io.IOException;
 
 @Getter
 public class TowersBoard extends Board {
 
+    /**
+     * Регулярное выражение для записи башни. Используется эталонным разбором {@link RegexMoveParser}
+     */
+    public static final String POSITION_PATTERN = "[a-hA-H][1-8]_([bwBW])*";
+
+    /**
+     * Начальная расстановка белых
+     */
+    public static final String INITIAL_WHITE_POSITIONS = "a1_w a3_w b2_w c1_w c3_w d2_w e1_w e3_w f2_w g1_w g3_w h2_w";
+
+    /**
+     * Начальная расстановка чёрных
+     */
+    public static final String INITIAL_BLACK_POSITIONS = "a7_b b6_b b8_b c7_b d6_b d8_b e7_b f6_b f8_b g7_b h6_b h8_b";
+
     public TowersBoard(String whitePoses, String blackPoses) {
-        super(whitePoses, blackPoses, "[a-hA-H][1-8]_([bwBW])*");
+        super(whitePoses, blackPoses, new MoveLexer());
     }
 
     public TowersBoard(String pathStr) throws
             IOException {
-        super(pathStr, "[a-hA-H][1-8]_([bwBW])*");
+        super(pathStr, new MoveLexer());
+    }
+
+    public TowersBoard(LineSource source) {
+        super(source, new MoveLexer());
+    }
+
+    /**
+     * Копирует позицию доски other (см. {@link Board#Board(Board)})
+     * @param other Копируемая доска
+     */
+    public TowersBoard(TowersBoard other) {
+        super(other);
     }
 
     public TowersBoard() {
-        super("[a-hA-H][1-8]_([bwBW])*");
+        super(new MoveLexer());
     }
 
     /**
      * Создает объект класса Tower, у которой верхняя шашка цвета colour с позицией position
      * @param colour Цвет верхней шашки объекта
      * @param position Позиция объекта
-     * @return Созданную башню
+     * @return Созданную башню или null, если в ней больше {@link Zobrist#MAX_HEIGHT} шашек
+     */
+    @Override
+    protected Figure createFigure(Colour colour, CharSequence position) {
+        return Tower.getHeight(position) > Zobrist.MAX_HEIGHT ? null : new Tower(colour, position);
+    }
+
+    /**
+     * @param movingFigure Бьющая башня
+     * @return false, если башня уже максимальной высоты и взять шашку не может (ошибка "general error")
      */
     @Override
-    protected Figure createFigure(Colour colour, String position) {
-        return new Tower(colour, position);
+    protected boolean checkIfFigureCanGrow(Figure movingFigure) {
+        return ((Tower) movingFigure).canTakeChecker();
+    }
+
+    /**
+     * Сравнивает шашки башни в записи fullPos с шашками в записи endPos, записанными до индекса endPosEnd
+     */
+    private static boolean isRegionEqual(CharSequence fullPos, CharSequence endPos, int endPosEnd) {
+        if (fullPos.length() != endPosEnd) {
+            return false;
+        }
+        for (int i = 3; i < endPosEnd; ++i) {
+            if (fullPos.charAt(i) != endPos.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Проверяет, правда ли, что, башня figure, перейдя на новую позицию, может иметь позицию в записи хода endPos.
-     * Если нет, бросает GeneralErrorException
      * @param figure Двигающаяся башня
      * @param endPos Конечная позиция в ходу
      * @param itIsBeating Бьет ли башня другую башня во время этого хода
-     * @throws GeneralErrorException
+     * @return false, если запись неверна (ошибка "general error")
      */
     @Override
-    protected void checkIfNotationIsRightElseThrow(Figure figure, String endPos, boolean itIsBeating)
-            throws GeneralErrorException {
-        String subcheckers = figure.getFullPosition().substring(3);
+    protected boolean checkIfNotationIsRight(Figure figure, CharSequence endPos, boolean itIsBeating) {
+        CharSequence fullPos = figure.getFullPosition();
         if (itIsBeating) {
-            if (!subcheckers.equals(endPos.substring(3, endPos.length() - 1))) {
-                throw new GeneralErrorException("general error");
+            if (endPos.length() <= 3 || !isRegionEqual(fullPos, endPos, endPos.length() - 1)) {
+                return false;
             }
             char lastSymb = endPos.charAt(endPos.length() - 1);
-            if (figure.getColour() == Colour.WHITE && lastSymb != 'b' && lastSymb != 'B'
-                    || figure.getColour() == Colour.BLACK && lastSymb != 'w' && lastSymb != 'W') {
-                throw new GeneralErrorException("general error");
-            }
-        } else if (!subcheckers.equals(endPos.substring(3))) {
-            throw new GeneralErrorException("general error");
+            return !(figure.getColour() == Colour.WHITE && lastSymb != 'b' && lastSymb != 'B'
+                    || figure.getColour() == Colour.BLACK && lastSymb != 'w' && lastSymb != 'W');
         }
+        return isRegionEqual(fullPos, endPos, endPos.length());
     }
 
     /**
      * Проверяет финальное совпадение нотаций
      * @param figureToBeat Башня, которую нужно побить
      * @param endPos Конечная позиция
-     * @throws GeneralErrorException
+     * @return false, если запись неверна (ошибка "general error")
      */
     @Override
-    protected void checkFinalCorectnessOfNotation(Figure figureToBeat, String endPos)
-            throws GeneralErrorException {
+    protected boolean checkFinalCorectnessOfNotation(Figure figureToBeat, CharSequence endPos) {
         char lastSymb = endPos.charAt(endPos.length() - 1);
-        if ((lastSymb == 'B' || lastSymb == 'W') && !figureToBeat.isKing()
-                || (lastSymb == 'b' || lastSymb == 'w') && figureToBeat.isKing()) {
-            throw new GeneralErrorException("general error");
-        }
+        return !((lastSymb == 'B' || lastSymb == 'W') && !figureToBeat.isKing()
+                || (lastSymb == 'b' || lastSymb == 'w') && figureToBeat.isKing());
+    }
+
+    /**
+     * Читает башню, записанную {@link Tower#write}
+     * @param in Поток с башней
+     * @return Прочитанную башню
+     * @throws IOException Если запись повреждена
+     */
+    @Override
+    protected Figure readFigure(DataInput in) throws IOException {
+        return Tower.read(in);
     }
 
     /**
@@ -0,0 +1,187 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Генератор допустимых ходов для {@link TowersBoard} по правилам русских шашек: простые шашки ходят и бьют
+ * во все 4 стороны, дамки - на любое расстояние, бить обязательно, и взятие продолжается, пока есть что бить.
+ * Шашка, дошедшая во время взятия до последней горизонтали, продолжает бить как дамка. Побитая башня отдаёт
+ * верхнюю шашку бьющей башне и до конца хода остаётся на месте (второй раз её бить нельзя), а пустая башня
+ * сразу снимается с доски.
+ * Генерируются только ходы на свободные клетки и ходы дамок по свободной диагонали, то есть подмножество ходов,
+ * которые принимает {@link Board#makeMoves}. Фигуры из списка overflow (см. {@link Bitboard}) не ходят.
+ * Взятие, после которого в башне оказалось бы больше {@link Zobrist#MAX_HEIGHT} шашек, доска не принимает,
+ * поэтому цепочки, доходящие до такого взятия, не генерируются, но ходы без взятия из-за них всё равно запрещены.
+ */
+public class TowersMoveGenerator {
+
+    private final Board board;
+    private final int[] stepLandings = new int[Bitboard.SQUARES_COUNT];
+    private final int[] stepCaptured = new int[Bitboard.SQUARES_COUNT];
+
+    private Bitboard bitboard;
+    private MoveBuffer moves;
+    private Colour colour;
+    private int from;
+    private int occupied;
+    private int enemies;
+    private int maxDepth;
+    private boolean capturesFound;
+
+    /**
+     * @param board Доска, для текущей позиции которой генерируются ходы
+     */
+    public TowersMoveGenerator(Board board) {
+        this.board = board;
+    }
+
+    private static boolean contains(int mask, int square) {
+        return (mask & (1 << square)) != 0;
+    }
+
+    private static Colour getOppositeColour(Colour colour) {
+        return colour == Colour.WHITE ? Colour.BLACK : Colour.WHITE;
+    }
+
+    private boolean isLastRank(int square) {
+        return Bitboard.getRank(square) == (colour == Colour.WHITE ? 7 : 0);
+    }
+
+    /**
+     * Генерирует все допустимые ходы фигур с верхней шашкой цвета colour. Если хотя бы одна фигура может бить,
+     * генерируются только взятия
+     * @param newColour Цвет ходящей стороны
+     * @param buffer Буфер, в который записываются ходы (предыдущее содержимое стирается)
+     * @return Количество ходов
+     */
+    public int generate(Colour newColour, MoveBuffer buffer) {
+        colour = newColour;
+        moves = buffer;
+        bitboard = board.getBitboard();
+        moves.clear(colour);
+        capturesFound = false;
+        int own = bitboard.getOccupied(colour);
+        for (int figures = own; figures != 0; figures &= figures - 1) {
+            from = Integer.numberOfTrailingZeros(figures);
+            occupied = bitboard.getOccupied() & ~(1 << from);
+            enemies = bitboard.getOccupied(getOppositeColour(colour));
+            Tower tower = (Tower) bitboard.getFigure(colour, from);
+            maxDepth = Zobrist.MAX_HEIGHT - tower.getHeight();
+            generateCaptures(from, tower.isKing(), 0);
+        }
+        if (!capturesFound) {
+            occupied = bitboard.getOccupied();
+            for (int figures = own; figures != 0; figures &= figures - 1) {
+                from = Integer.numberOfTrailingZeros(figures);
+                generateQuietMoves(bitboard.getFigure(colour, from).isKing());
+            }
+        }
+        return moves.size();
+    }
+
+    private void generateQuietMoves(boolean king) {
+        stepCaptured[0] = -1;
+        for (int direction = 0; direction < Bitboard.DIRECTIONS_COUNT; ++direction) {
+            int to = Bitboard.getNeighbour(from, direction);
+            while (to != -1 && !contains(occupied, to)) {
+                stepLandings[0] = to;
+                moves.add(from, stepLandings, stepCaptured, 1);
+                if (!king) {
+                    break;
+                }
+                to = Bitboard.getNeighbour(to, direction);
+            }
+        }
+    }
+
+    private void generateCaptures(int square, boolean king, int depth) {
+        boolean captured = false;
+        for (int direction = 0; direction < Bitboard.DIRECTIONS_COUNT; ++direction) {
+            int target = Bitboard.getNeighbour(square, direction);
+            while (king && target != -1 && !contains(occupied, target)) {
+                target = Bitboard.getNeighbour(target, direction);
+            }
+            if (target == -1 || !contains(enemies, target)) {
+                continue;
+            }
+            int landing = Bitboard.getNeighbour(target, direction);
+            while (landing != -1 && !contains(occupied, landing)) {
+                captured = true;
+                if (depth == maxDepth) {
+                    break;
+                }
+                capture(target, landing, king, depth);
+                if (!king) {
+                    break;
+                }
+                landing = Bitboard.getNeighbour(landing, direction);
+            }
+        }
+        if (!captured && depth > 0) {
+            moves.add(from, stepLandings, stepCaptured, depth);
+        }
+        capturesFound |= captured;
+    }
+
+    private void capture(int target, int landing, boolean king, int depth) {
+        int savedOccupied = occupied;
+        int savedEnemies = enemies;
+        stepLandings[depth] = landing;
+        stepCaptured[depth] = target;
+        enemies &= ~(1 << target);
+        if (((Tower) bitboard.getFigure(getOppositeColour(colour), target)).getHeight() == 1) {
+            occupied &= ~(1 << target);
+        }
+        generateCaptures(landing, king || isLastRank(landing), depth + 1);
+        occupied = savedOccupied;
+        enemies = savedEnemies;
+    }
+
+    private static void appendCheckers(StringBuilder out, int colours, int capitalLetters, int height) {
+        for (int i = 0; i < height; ++i) {
+            out.append(Tower.getChecker((colours & (1 << i)) != 0, (capitalLetters & (1 << i)) != 0));
+        }
+    }
+
+    /**
+     * Записывает ход в том виде, в котором его принимает {@link Board#makeMoves}: позиции башни после каждого шага,
+     * разделённые '-' или ':'. Буквы клеток записываются в том же регистре, что и буква исходной клетки башни:
+     * доска сравнивает буквы клеток как символы. Ход должен быть сгенерирован для текущей позиции доски
+     * @param buffer Буфер со сгенерированными ходами
+     * @param index Номер хода
+     * @param out Строка, в конец которой дописывается ход
+     */
+    public void appendNotation(MoveBuffer buffer, int index, StringBuilder out) {
+        Bitboard currentBitboard = board.getBitboard();
+        Colour moverColour = buffer.getColour();
+        Colour opponentColour = getOppositeColour(moverColour);
+        Tower tower = (Tower) currentBitboard.getFigure(moverColour, buffer.getFrom(index));
+        StringBuilder start = tower.getFullPosition();
+        boolean capitalSquareLetter = Character.isUpperCase(start.charAt(0));
+        out.append(start);
+        if (!buffer.isCapture(index)) {
+            out.append('-');
+            out.append(Square.of(buffer.getTo(index)).getName(capitalSquareLetter));
+            out.append(start, 2, start.length());
+            return;
+        }
+        int colours = tower.getColours();
+        int capitalLetters = tower.getCapitalLetters();
+        int height = tower.getHeight();
+        for (int step = 0; step < buffer.getStepsCount(index); ++step) {
+            Figure victim = currentBitboard.getFigure(opponentColour, buffer.getCaptured(index, step));
+            boolean black = opponentColour == Colour.BLACK;
+            boolean capitalLetter = victim.isKing();
+            out.append(':');
+            out.append(Square.of(buffer.getLanding(index, step)).getName(capitalSquareLetter));
+            out.append('_');
+            appendCheckers(out, colours, capitalLetters, height);
+            out.append(Tower.getChecker(black, capitalLetter));
+            if (black) {
+                colours |= 1 << height;
+            }
+            if (capitalLetter) {
+                capitalLetters |= 1 << height;
+            }
+            ++height;
+        }
+    }
+}
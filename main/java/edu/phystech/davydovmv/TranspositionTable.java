@@ -0,0 +1,157 @@
+package edu.phystech.davydovmv;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Таблица транспозиций фиксированного размера для {@link AlphaBetaSearch}. Запись хранит ключ позиции, оценку,
+ * глубину, тип оценки (точная, нижняя или верхняя граница) и код лучшего хода. Каждому ключу соответствует одна
+ * ячейка; запись из текущего поиска заменяется только записью с не меньшей глубиной, записи прошлых поисков
+ * заменяются всегда.
+ * Таблица без блокировок используется несколькими потоками сразу (см. {@link ParallelSearch}): запись - это два
+ * long, упакованные данные и ключ, XOR-нутый с данными. Каждый long читается и пишется атомарно, а если другой поток
+ * успел переписать половину записи, ключ не сойдётся с данными и запись будет считаться отсутствующей.
+ */
+public class TranspositionTable {
+
+    /**
+     * Точная оценка
+     */
+    public static final int EXACT = 0;
+
+    /**
+     * Оценка не меньше сохранённой (был отсечён ход)
+     */
+    public static final int LOWER_BOUND = 1;
+
+    /**
+     * Оценка не больше сохранённой (ни один ход не улучшил alpha)
+     */
+    public static final int UPPER_BOUND = 2;
+
+    private static final int MOVE_BITS = 32;
+    private static final int SCORE_BITS = 16;
+    private static final int DEPTH_BITS = 8;
+    private static final int BOUND_BITS = 2;
+    private static final int GENERATION_BITS = 5;
+
+    private static final int SCORE_SHIFT = MOVE_BITS;
+    private static final int DEPTH_SHIFT = SCORE_SHIFT + SCORE_BITS;
+    private static final int BOUND_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int GENERATION_SHIFT = BOUND_SHIFT + BOUND_BITS;
+
+    private static final long PRESENT = 1L << (GENERATION_SHIFT + GENERATION_BITS);
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private volatile int generation;
+
+    /**
+     * @param sizeMegabytes Размер таблицы в мегабайтах (округляется вниз до степени двойки записей)
+     */
+    public TranspositionTable(int sizeMegabytes) {
+        long entriesCount = Math.max((long) sizeMegabytes << 20 >>> 4, 1);
+        int size = Integer.highestOneBit((int) Math.min(entriesCount, 1 << 30));
+        slots = new AtomicLongArray(size * 2);
+        mask = size - 1;
+    }
+
+    /**
+     * Помечает начало нового поиска: записи предыдущих поисков будут заменяться независимо от глубины. Вызывается
+     * один раз на поиск, до запуска потоков
+     */
+    public void newSearch() {
+        generation = (generation + 1) & ((1 << GENERATION_BITS) - 1);
+    }
+
+    /**
+     * Очищает таблицу
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); ++i) {
+            slots.setOpaque(i, 0);
+        }
+    }
+
+    private int getSlot(long key) {
+        return ((int) key & mask) * 2;
+    }
+
+    /**
+     * Ищет запись позиции
+     * @param key Ключ позиции
+     * @return Упакованная запись (см. getScore, getDepth, getBound, getMove) или 0, если позиции нет в таблице
+     */
+    public long probe(long key) {
+        int slot = getSlot(key);
+        long entry = slots.getOpaque(slot + 1);
+        return (slots.getOpaque(slot) ^ entry) == key ? entry : 0;
+    }
+
+    /**
+     * Сохраняет запись позиции, если она не хуже записи, которая лежит в той же ячейке
+     * @param key Ключ позиции
+     * @param score Оценка
+     * @param depth Глубина, на которую просчитана позиция
+     * @param bound EXACT, LOWER_BOUND или UPPER_BOUND
+     * @param move Код лучшего хода или 0
+     */
+    public void store(long key, int score, int depth, int bound, int move) {
+        int slot = getSlot(key);
+        int currentGeneration = generation;
+        long entry = slots.getOpaque(slot + 1);
+        if (entry != 0 && getGeneration(entry) == currentGeneration && getDepth(entry) > depth) {
+            return;
+        }
+        if (move == 0 && (slots.getOpaque(slot) ^ entry) == key) {
+            move = getMove(entry);
+        }
+        long newEntry = pack(score, depth, bound, move, currentGeneration);
+        slots.setOpaque(slot, key ^ newEntry);
+        slots.setOpaque(slot + 1, newEntry);
+    }
+
+    private static long pack(int score, int depth, int bound, int move, int generation) {
+        return move & 0xFFFFFFFFL
+                | (long) (score & 0xFFFF) << SCORE_SHIFT
+                | (long) depth << DEPTH_SHIFT
+                | (long) bound << BOUND_SHIFT
+                | (long) generation << GENERATION_SHIFT
+                | PRESENT;
+    }
+
+    /**
+     * @param entry Запись из {@link #probe}
+     * @return Оценка
+     */
+    public static int getScore(long entry) {
+        return (short) (entry >>> SCORE_SHIFT);
+    }
+
+    /**
+     * @param entry Запись из {@link #probe}
+     * @return Глубина
+     */
+    public static int getDepth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & ((1 << DEPTH_BITS) - 1);
+    }
+
+    /**
+     * @param entry Запись из {@link #probe}
+     * @return EXACT, LOWER_BOUND или UPPER_BOUND
+     */
+    public static int getBound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & ((1 << BOUND_BITS) - 1);
+    }
+
+    /**
+     * @param entry Запись из {@link #probe}
+     * @return Код лучшего хода или 0
+     */
+    public static int getMove(long entry) {
+        return (int) entry;
+    }
+
+    private static int getGeneration(long entry) {
+        return (int) (entry >>> GENERATION_SHIFT) & ((1 << GENERATION_BITS) - 1);
+    }
+}
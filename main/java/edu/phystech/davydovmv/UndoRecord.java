@@ -0,0 +1,77 @@
+package edu.phystech.davydovmv;
+
+import java.util.Arrays;
+
+/**
+ * Запись для отмены хода, сделанного {@link Board#makeMove(MoveBuffer, int, UndoRecord)}: ходившая фигура и её
+ * состояние до хода, стек побитых фигур с их состояниями и ключ позиции до хода. Запись переиспользуется от хода
+ * к ходу, поэтому отмена не требует копирования доски.
+ */
+public class UndoRecord {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Figure figure;
+    private long figureState;
+    private long zobristKey;
+    private boolean promoted;
+    private int capturedCount;
+    private Figure[] captured = new Figure[INITIAL_CAPACITY];
+    private long[] capturedStates = new long[INITIAL_CAPACITY];
+
+    void begin(Figure newFigure, long newZobristKey) {
+        figure = newFigure;
+        figureState = newFigure.getUndoState();
+        zobristKey = newZobristKey;
+        promoted = false;
+        capturedCount = 0;
+    }
+
+    void addCaptured(Figure capturedFigure) {
+        if (capturedCount == captured.length) {
+            captured = Arrays.copyOf(captured, capturedCount * 2);
+            capturedStates = Arrays.copyOf(capturedStates, capturedCount * 2);
+        }
+        captured[capturedCount] = capturedFigure;
+        capturedStates[capturedCount] = capturedFigure.getUndoState();
+        ++capturedCount;
+    }
+
+    void setPromoted(boolean newPromoted) {
+        promoted = newPromoted;
+    }
+
+    Figure getFigure() {
+        return figure;
+    }
+
+    long getFigureState() {
+        return figureState;
+    }
+
+    long getZobristKey() {
+        return zobristKey;
+    }
+
+    Figure getCaptured(int index) {
+        return captured[index];
+    }
+
+    long getCapturedState(int index) {
+        return capturedStates[index];
+    }
+
+    /**
+     * @return Количество побитых за ход фигур
+     */
+    public int getCapturedCount() {
+        return capturedCount;
+    }
+
+    /**
+     * @return Стала ли ходившая фигура дамкой за этот ход
+     */
+    public boolean isPromoted() {
+        return promoted;
+    }
+}
@@ -0,0 +1,66 @@
+package edu.phystech.davydovmv;
+
+/**
+ * Итог проверки партии через {@link Board#check()}: результат и, если партия записана неверно, на каком ходу
+ * обнаружена ошибка.
+ */
+public class ValidationResult {
+
+    private final MoveResult result;
+    private final int movesCount;
+    private final Colour colour;
+    private final String move;
+
+    ValidationResult(MoveResult result, int movesCount, Colour colour, String move) {
+        this.result = result;
+        this.movesCount = movesCount;
+        this.colour = colour;
+        this.move = move;
+    }
+
+    /**
+     * @return Результат проверки
+     */
+    public MoveResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return Верна ли партия
+     */
+    public boolean isOk() {
+        return result == MoveResult.OK;
+    }
+
+    /**
+     * @return Номер строки с ходами, на которой обнаружена ошибка (с единицы), 0 - если ошибка до первой строки
+     * с ходами или её нет
+     */
+    public int getMovesCount() {
+        return movesCount;
+    }
+
+    /**
+     * @return Номер полухода с ошибкой (с единицы) или 0, если ошибка не относится к конкретному полуходу
+     */
+    public int getPly() {
+        if (colour == null) {
+            return 0;
+        }
+        return 2 * (movesCount - 1) + (colour == Colour.WHITE ? 1 : 2);
+    }
+
+    /**
+     * @return Цвет стороны, ход которой ошибочен, или null, если ошибка относится к строке целиком
+     */
+    public Colour getColour() {
+        return colour;
+    }
+
+    /**
+     * @return Запись ошибочного хода, строка с ходами, если ошибка относится к строке целиком, или null
+     */
+    public String getMove() {
+        return move;
+    }
+}
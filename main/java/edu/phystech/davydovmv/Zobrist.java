@@ -0,0 +1,77 @@
+package edu.phystech.davydovmv;
+
+import java.util.SplittableRandom;
+
+/**
+ * Ключи Зобриста для позиций. Каждой комбинации (клетка, глубина шашки в башне, цвет шашки, дамка ли шашка)
+ * соответствует случайное 64-битное число, ключ башни - XOR чисел всех её шашек, ключ позиции - XOR ключей всех башен.
+ * При изменении башни ключ позиции обновляется за O(высота башни): старый ключ башни убирается, новый добавляется.
+ */
+public final class Zobrist {
+
+    /**
+     * Максимальная высота башни
+     */
+    public static final int MAX_HEIGHT = 32;
+
+    private static final long SEED = 0x5DEECE66DL;
+    private static final int CHECKER_TYPES = 4;
+
+    /**
+     * Фигуры из начальной расстановки могут стоять на белых клетках. У каждой белой клетки своя строка после строк
+     * чёрных клеток, чтобы позиции, которые различаются только такими фигурами, не получали один ключ
+     */
+    private static final int ROWS_COUNT = Bitboard.SQUARES_COUNT * 2;
+
+    private static final long[] CHECKER_KEYS = new long[ROWS_COUNT * MAX_HEIGHT * CHECKER_TYPES];
+    private static final long[] TAGGED_AS_KING_KEYS = new long[ROWS_COUNT];
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < CHECKER_KEYS.length; ++i) {
+            CHECKER_KEYS[i] = random.nextLong();
+        }
+        for (int i = 0; i < TAGGED_AS_KING_KEYS.length; ++i) {
+            TAGGED_AS_KING_KEYS[i] = random.nextLong();
+        }
+        BLACK_TO_MOVE_KEY = random.nextLong();
+    }
+
+    private Zobrist() { }
+
+    /**
+     * Вычисляет ключ башни
+     * @param square Клетка башни (может быть белой)
+     * @param height Количество шашек
+     * @param colours Маска чёрных шашек (0-й бит - верхняя шашка)
+     * @param kings Маска дамок
+     * @param taggedAsKing Помечена ли башня дамкой
+     * @return Ключ башни, для пустой башни - 0
+     */
+    public static long getTowerKey(Square square, int height, int colours, int kings, boolean taggedAsKing) {
+        if (height == 0) {
+            return 0;
+        }
+        int row = square.getIndex() != -1
+                ? square.getIndex()
+                : Bitboard.SQUARES_COUNT + square.getRank() * 4 + square.getFile() / 2;
+        long key = taggedAsKing ? TAGGED_AS_KING_KEYS[row] : 0;
+        int offset = row * MAX_HEIGHT * CHECKER_TYPES;
+        for (int depth = 0; depth < height; ++depth) {
+            int type = (colours >>> depth & 1) << 1 | kings >>> depth & 1;
+            key ^= CHECKER_KEYS[offset + depth * CHECKER_TYPES + type];
+        }
+        return key;
+    }
+
+    /**
+     * Возвращает ключ очереди хода. Ключ доски ({@link Board#getZobristKey}) не зависит от того, чья очередь ходить;
+     * для поиска к нему добавляется этот ключ
+     * @param colour Цвет стороны, которая ходит
+     * @return Ключ, который XOR-ится с ключом доски
+     */
+    public static long getSideKey(Colour colour) {
+        return colour == Colour.BLACK ? BLACK_TO_MOVE_KEY : 0;
+    }
+}
@@ -0,0 +1,60 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+
+public class AlphaBetaSearchTest {
+
+    private static AlphaBetaSearch.Result Search(TowersBoard board, int maxDepth, long maxNodes) {
+        return new AlphaBetaSearch(board, new TranspositionTable(1))
+                .search(Colour.WHITE, maxDepth, Long.MAX_VALUE, maxNodes);
+    }
+
+    @Test
+    void WinningCaptureTest() {
+        TowersBoard board = new TowersBoard("c3_w", "d4_b");
+        AlphaBetaSearch.Result result = Search(board, 8, Long.MAX_VALUE);
+        assertThat(result.getBestMove()).isEqualTo("c3_w:e5_wb");
+        assertThat(result.getScore()).isEqualTo(AlphaBetaSearch.MATE - 1);
+    }
+
+    @Test
+    void NoMovesTest() {
+        TowersBoard board = new TowersBoard("a1_w", "b2_b c3_b");
+        AlphaBetaSearch.Result result = Search(board, 4, Long.MAX_VALUE);
+        assertThat(result.getBestMove()).isNull();
+        assertThat(result.getScore()).isEqualTo(-AlphaBetaSearch.MATE);
+    }
+
+    @Test
+    void NodesLimitTest() {
+        TowersBoard board = new TowersBoard(
+                TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+        AlphaBetaSearch.Result result = Search(board, 64, 20000);
+        assertThat(result.getNodes()).isLessThanOrEqualTo(20000);
+        assertThat(result.getDepth()).isGreaterThan(0);
+        assertThat(result.getBestMove()).isNotNull();
+    }
+
+    @Test
+    void SearchDoesNotChangeBoardTest() {
+        TowersBoard board = new TowersBoard(
+                TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+        long key = board.getZobristKey();
+        String figures = Assertions.assertDoesNotThrow(board::getAllFigures);
+        Search(board, 6, Long.MAX_VALUE);
+        assertThat(board.getZobristKey()).isEqualTo(key);
+        assertThat(Assertions.assertDoesNotThrow(board::getAllFigures)).isEqualTo(figures);
+    }
+
+    @Test
+    void ParallelSearchTest() {
+        TowersBoard board = new TowersBoard("c3_w", "d4_b");
+        AlphaBetaSearch.Result result = new ParallelSearch(board, new TranspositionTable(1), 4)
+                .search(Colour.WHITE, 8, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertThat(result.getBestMove()).isEqualTo("c3_w:e5_wb");
+        assertThat(result.getScore()).isEqualTo(AlphaBetaSearch.MATE - 1);
+        assertThat(Assertions.assertDoesNotThrow(board::getAllFigures)).isEqualTo("c3_w \nd4_b \n");
+    }
+}
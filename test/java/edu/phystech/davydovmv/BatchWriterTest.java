@@ -0,0 +1,101 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.Assertions.*;
+
+public class BatchWriterTest {
+
+    /**
+     * Запоминает размер каждого куска, отданного BatchWriter
+     */
+    private static class ChunksStream extends ByteArrayOutputStream {
+        private final List<Integer> chunks = new ArrayList<>();
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            chunks.add(length);
+            super.write(bytes, offset, length);
+        }
+    }
+
+    private static ChunksStream Write(String text, int capacity) throws IOException {
+        ChunksStream out = new ChunksStream();
+        BatchWriter writer = new BatchWriter(out, capacity);
+        writer.append(text);
+        writer.flush();
+        return out;
+    }
+
+    @Test
+    void ChunkBoundaryTest() throws IOException {
+        ChunksStream out = Write("c3_w-d4_w", 4);
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("c3_w-d4_w");
+        assertThat(out.chunks).containsExactly(4, 4, 1);
+
+        String text = "ab\u0431\u0430\u0448\u043D\u044F\u265C\uD83D\uDE00z";
+        for (int capacity = 4; capacity <= text.length() * 4; ++capacity) {
+            out = Write(text, capacity);
+            assertThat(out.toByteArray()).as("capacity " + capacity).isEqualTo(text.getBytes(StandardCharsets.UTF_8));
+            for (int chunk: out.chunks) {
+                assertThat(chunk).isLessThanOrEqualTo(capacity);
+            }
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BatchWriter(new ByteArrayOutputStream(), 3));
+    }
+
+    @Test
+    void NonAsciiAndSurrogatesTest() throws IOException {
+        String[] texts = {
+                "\u00E9\u0436\u20AC\u265C",
+                "\uD83D\uDE00\uD800\uDC00\uDBFF\uDFFF",
+                "\uD83D",
+                "\uDE00a",
+                "a\uD83Db\uDE00\uD83D\uD83D\uDE00",
+        };
+        for (String text: texts) {
+            assertThat(Write(text, 4).toByteArray()).as(text).isEqualTo(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void AppendBytesTest() throws IOException {
+        byte[] bytes = "c3_w d4_b \n".getBytes(StandardCharsets.UTF_8);
+        ChunksStream out = new ChunksStream();
+        BatchWriter writer = new BatchWriter(out, 8);
+        writer.append("a:\n").appendBytes(bytes, 0, 5).appendBytes(bytes, 5, 6).append('\uD83D');
+        writer.appendBytes(bytes, 0, bytes.length).flush();
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("a:\nc3_w d4_b \n?c3_w d4_b \n");
+        for (int chunk: out.chunks) {
+            assertThat(chunk).isLessThanOrEqualTo(bytes.length);
+        }
+    }
+
+    private static String AppendAllFigures(Board board) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BatchWriter writer = new BatchWriter(out, 4);
+        board.appendAllFigures(writer);
+        writer.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void AppendAllFiguresTest() throws Exception {
+        TowersBoard board = new TowersBoard("a1_w c3_w g3_w", "a7_b e5_b h8_b");
+        board.makeMoves("g3_w-h4_w e5_b-f4_b");
+        assertThat(AppendAllFigures(board)).isEqualTo("a1_w c3_w h4_w \na7_b f4_b h8_b \n");
+
+        TowersBoard shared = new TowersBoard("e3_w c3_wb c3_W", "h8_b a7_b");
+        shared.makeMoves("e3_w-f4_w h8_b-g7_b");
+        assertThat(AppendAllFigures(shared)).isEqualTo("c3_W c3_wb f4_w \na7_b g7_b \n");
+
+        TowersBoard sharedByColours = new TowersBoard("e3_w c3_w", "c3_b h8_b");
+        sharedByColours.makeMoves("e3_w-f4_w h8_b-g7_b");
+        assertThat(AppendAllFigures(sharedByColours)).isEqualTo("c3_w f4_w \nc3_b g7_b \n");
+    }
+}
@@ -0,0 +1,68 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryGameTest {
+
+    private static final List<String> GAME = Arrays.asList(
+            "d8_w e3_w e1_wBbBw e7_w c3_w g3_w g7_W g1_Www f4_wW d4_w",
+            "b8_bBwb h8_bbb h6_b b6_bwbbb c7_b",
+            "d4_w-c5_w h8_bbb:f6_bbbW",
+            "c5_w:a7_wb f6_bbbW:d8_bbbWw",
+            "g1_Www-c5_Www c7_b:a5_bw",
+            "c5_Www-d6_Www h6_b-g5_b",
+            "a7_wb:c5_wbb g5_b:e3_bw",
+            "c5_wbb:a7_wbbb e3_bw:g5_bwW",
+            "a7_wbbb:c5_wbbbb b8_bBwb-c7_bBwb",
+            "d6_Www:b8_Wwwb c7_Bwb:h2_Bwbw",
+            "c3_w-b4_w c5_wbbbb-b6_wbbbb",
+            "b6_wbbbb-c7_wbbbb d8_bbbWw:b6_bbbWww",
+            "b8_Wwwb:e5_Wwwbb a5_bw:c3_bww",
+            "d8_w:b6_wb h2_Bwbw:d6_BwbwW");
+
+    private static final String FINAL_POSITION =
+            "b6_wb e1_wBbBw e3_w e5_wwbb \nb6_bbbWww c3_bww c7_bb d6_BwbwW g5_bwW \n";
+
+    private static byte[] encode(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertTrue(BinaryGame.encode(new LineReader(new StringReader(text)), out).isOk());
+        return out.toByteArray();
+    }
+
+    @Test
+    void RoundTrip() throws Exception {
+        String text = String.join("\n", GAME) + "\n";
+        byte[] binary = encode(text);
+        Assertions.assertTrue(binary.length * 2 < text.length());
+
+        StringBuilder decoded = new StringBuilder();
+        Assertions.assertTrue(BinaryGame.decode(new ByteArrayInputStream(binary), decoded).isOk());
+        Assertions.assertEquals(text, decoded.toString());
+
+        BinaryGame.Result result = BinaryGame.check(new ByteArrayInputStream(binary));
+        Assertions.assertTrue(result.getValidation().isOk());
+        Assertions.assertEquals(FINAL_POSITION, result.getBoard().getAllFigures());
+    }
+
+    @Test
+    void WrongGamesAreNotEncoded() throws Exception {
+        String text = String.join("\n", GAME.subList(0, 8)) + "\na7_wbbb:c5_wbbbb b8_bBwb-b7_bBwb\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertEquals(MoveResult.WHITE_CELL,
+                BinaryGame.encode(new LineReader(new StringReader(text)), out).getResult());
+        Assertions.assertEquals(0, out.size());
+
+        byte[] binary = encode(String.join("\n", GAME));
+        Assertions.assertThrows(IOException.class,
+                () -> BinaryGame.check(new ByteArrayInputStream(Arrays.copyOf(binary, binary.length - 1))));
+        binary[0] = 'X';
+        Assertions.assertThrows(IOException.class, () -> BinaryGame.check(new ByteArrayInputStream(binary)));
+    }
+}
@@ -0,0 +1,43 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.assertj.core.api.Assertions.*;
+
+public class BlunderScannerTest {
+
+    /**
+     * Записывает партию, в которой обе стороны делают лучший ход поиска глубины depth
+     */
+    private static Path WriteBestGame(Path directory, int depth, int linesCount) throws Exception {
+        TowersBoard board = new TowersBoard(
+                TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+        AlphaBetaSearch search = new AlphaBetaSearch(board, new TranspositionTable(1));
+        StringBuilder game = new StringBuilder(TowersBoard.INITIAL_WHITE_POSITIONS).append('\n')
+                .append(TowersBoard.INITIAL_BLACK_POSITIONS).append('\n');
+        for (int i = 0; i < linesCount; ++i) {
+            String white = search.search(Colour.WHITE, depth, Long.MAX_VALUE, Long.MAX_VALUE).getBestMove();
+            board.makeMove(white, Colour.WHITE);
+            String black = search.search(Colour.BLACK, depth, Long.MAX_VALUE, Long.MAX_VALUE).getBestMove();
+            board.makeMove(black, Colour.BLACK);
+            game.append(white).append(' ').append(black).append('\n');
+        }
+        Path path = directory.resolve("best_" + depth + ".txt");
+        Files.write(path, game.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    void BestMovesAreNotBlundersTest(@TempDir Path directory) throws Exception {
+        for (int depth = 1; depth <= 5; ++depth) {
+            BlunderScanner.Annotation annotation =
+                    new BlunderScanner(1, depth, 100, 1).annotateFile(WriteBestGame(directory, depth, 8));
+            assertThat(annotation.getPliesCount()).as("depth " + depth).isEqualTo(16);
+            assertThat(annotation.getBlundersCount()).as(annotation.getText()).isZero();
+            assertThat(annotation.getText()).doesNotContain(" ?");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class CheckpointedReplayTest {
+
+    private static final List<String> GAME = Arrays.asList(
+            "d8_w e3_w e1_wBbBw e7_w c3_w g3_w g7_W g1_Www f4_wW d4_w",
+            "b8_bBwb h8_bbb h6_b b6_bwbbb c7_b",
+            "d4_w-c5_w h8_bbb:f6_bbbW",
+            "c5_w:a7_wb f6_bbbW:d8_bbbWw",
+            "g1_Www-c5_Www c7_b:a5_bw",
+            "c5_Www-d6_Www h6_b-g5_b",
+            "a7_wb:c5_wbb g5_b:e3_bw",
+            "c5_wbb:a7_wbbb e3_bw:g5_bwW",
+            "a7_wbbb:c5_wbbbb b8_bBwb-c7_bBwb",
+            "d6_Www:b8_Wwwb c7_Bwb:h2_Bwbw",
+            "c3_w-b4_w c5_wbbbb-b6_wbbbb",
+            "b6_wbbbb-c7_wbbbb d8_bbbWw:b6_bbbWww",
+            "b8_Wwwb:e5_Wwwbb a5_bw:c3_bww",
+            "d8_w:b6_wb h2_Bwbw:d6_BwbwW");
+
+    private static final String FINAL_POSITION =
+            "b6_wb e1_wBbBw e3_w e5_wwbb \nb6_bbbWww c3_bww c7_bb d6_BwbwW g5_bwW \n";
+
+    private static void write(Path path, List<String> lines, String separator, StandardOpenOption... options)
+            throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (var line: lines) {
+            text.append(line).append(separator);
+        }
+        Files.write(path, text.toString().getBytes(StandardCharsets.UTF_8), options);
+    }
+
+    private static void checkAppendedGame(Path game, String separator) throws Exception {
+        CheckpointedReplay replay = new CheckpointedReplay(4);
+        write(game, GAME.subList(0, 8), separator);
+        CheckpointedReplay.Result first = replay.check(game);
+        Assertions.assertTrue(first.getValidation().isOk());
+        Assertions.assertEquals(0, first.getResumedMovesCount());
+        Assertions.assertTrue(Files.exists(CheckpointedReplay.getCheckpointsPath(game)));
+
+        write(game, GAME.subList(8, GAME.size()), separator, StandardOpenOption.APPEND);
+        CheckpointedReplay.Result second = replay.check(game);
+        Assertions.assertTrue(second.getValidation().isOk());
+        Assertions.assertEquals(6, second.getResumedMovesCount());
+        Assertions.assertEquals(FINAL_POSITION, second.getBoard().getAllFigures());
+        Assertions.assertEquals(FINAL_POSITION, new TowersBoard(game.toString()).validate());
+
+        CheckpointedReplay.Result unchanged = replay.check(game);
+        Assertions.assertEquals(12, unchanged.getResumedMovesCount());
+        Assertions.assertEquals(FINAL_POSITION, unchanged.getBoard().getAllFigures());
+    }
+
+    @Test
+    void ResumeAfterAppend(@TempDir Path directory) throws Exception {
+        checkAppendedGame(directory.resolve("game.txt"), "\n");
+        checkAppendedGame(directory.resolve("game_crlf.txt"), "\r\n");
+    }
+
+    @Test
+    void EditedGameIsReplayedFromUnchangedPart(@TempDir Path directory) throws Exception {
+        Path game = directory.resolve("game.txt");
+        CheckpointedReplay replay = new CheckpointedReplay(4);
+        write(game, GAME, "\n");
+        Assertions.assertTrue(replay.check(game).getValidation().isOk());
+
+        List<String> edited = Arrays.asList(GAME.toArray(new String[0]));
+        edited.set(8, "a7_wbbb:c5_wbbbb b8_bBwb-b7_bBwb");
+        write(game, edited, "\n");
+        CheckpointedReplay.Result result = replay.check(game);
+        Assertions.assertEquals(MoveResult.WHITE_CELL, result.getValidation().getResult());
+        Assertions.assertEquals(6, result.getResumedMovesCount());
+        Assertions.assertEquals(7, result.getValidation().getMovesCount());
+
+        Files.write(CheckpointedReplay.getCheckpointsPath(game), new byte[]{1, 2, 3});
+        Assertions.assertEquals(0, replay.check(game).getResumedMovesCount());
+    }
+}
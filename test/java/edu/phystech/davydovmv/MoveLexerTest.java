@@ -0,0 +1,95 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.*;
+
+public class MoveLexerTest {
+    private static final String[] LINES = {
+            "a1_w a3_w b2_w c1_w c3_w d2_w e1_w e3_w f2_w g1_w g3_w h2_w",
+            "c3_w-d4_w f6_b-g5_b",
+            "c3_w-d4_w",
+            "C3_w-d4_w a7_b-B6_b",
+            "e3_wb:c5_wbw:e7_wbww a7_b-b6_b",
+            "d2_Bbbb:b4_Bbbbw:e7_Bbbbww",
+            "b6_W-f2_W h6_bBW:d2_bBWw",
+            "c3_w:d4_",
+            "c3_w-d4_w  f6_b-g5_b",
+            "c3_w-d4_w f6_b-g5_b ",
+            "c3_w-d4_w-e5_w",
+            "c3_w:d4_w-e5_w",
+            "i3_w-d4_w",
+            "c9_w-d4_w",
+            "c3w-d4_w",
+            "c3_x-d4_w",
+            "",
+            " ",
+            "c3_w",
+            "c3_w-",
+            "c3_w:d4_wb f6_b:e5_bw:c3_bwbw x",
+    };
+
+    private static final String ALPHABET = "abcdhiABHW12890_wbxWB-: ";
+
+    private static List<String> describe(int count, Move whiteMove, Move blackMove) {
+        List<String> result = new ArrayList<>();
+        result.add(Integer.toString(count));
+        if (count >= 1) {
+            result.add(whiteMove.isBeating() + " " + whiteMove);
+        }
+        if (count == 2) {
+            result.add(blackMove.isBeating() + " " + blackMove);
+        }
+        return result;
+    }
+
+    private static void assertSameParse(String line) {
+        MoveParser lexer = new MoveLexer();
+        MoveParser reference = new RegexMoveParser(TowersBoard.POSITION_PATTERN);
+        Move white = new Move();
+        Move black = new Move();
+        List<String> actual = describe(lexer.parseMoves(line, white, black), white, black);
+        List<String> expected = describe(reference.parseMoves(line, white, black), white, black);
+        assertThat(actual).as(line).isEqualTo(expected);
+
+        lexer.parsePositions(line, white);
+        reference.parsePositions(line, black);
+        assertThat(white.toString()).as(line).isEqualTo(black.toString());
+    }
+
+    @Test
+    void FixtureLinesTest() {
+        for (String line : LINES) {
+            assertSameParse(line);
+        }
+    }
+
+    @Test
+    void MutatedLinesTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; ++i) {
+            StringBuilder line = new StringBuilder(LINES[random.nextInt(LINES.length)]);
+            int mutations = 1 + random.nextInt(3);
+            for (int j = 0; j < mutations; ++j) {
+                int index = random.nextInt(line.length() + 1);
+                char symbol = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                switch (random.nextInt(3)) {
+                    case 0 -> line.insert(index, symbol);
+                    case 1 -> {
+                        if (index < line.length()) {
+                            line.deleteCharAt(index);
+                        }
+                    }
+                    default -> {
+                        if (index < line.length()) {
+                            line.setCharAt(index, symbol);
+                        }
+                    }
+                }
+            }
+            assertSameParse(line.toString());
+        }
+    }
+}
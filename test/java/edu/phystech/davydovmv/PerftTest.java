@@ -0,0 +1,102 @@
+package edu.phystech.davydovmv;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import static org.assertj.core.api.Assertions.*;
+
+public class PerftTest {
+
+    private static TowersBoard FixtureBoard(String name) throws IOException {
+        TowersBoard board = new TowersBoard(
+                "test/java/edu/phystech/davydovmv/TowersBoard/" + name);
+        Assertions.assertDoesNotThrow(board::validate);
+        return board;
+    }
+
+    @Test
+    void StartPositionTest() {
+        TowersBoard board = new TowersBoard(
+                TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+        Perft perft = new Perft(5);
+        long[] expected = {1, 7, 49, 340, 1983, 12914};
+        for (int depth = 0; depth <= 5; ++depth) {
+            assertThat(perft.perft(board, Colour.WHITE, depth)).as("depth " + depth).isEqualTo(expected[depth]);
+        }
+    }
+
+    @Test
+    void OneBeatTest() throws IOException {
+        assertThat(new Perft(5).perft(FixtureBoard("one_beat.txt"), Colour.WHITE, 5)).isEqualTo(7267);
+    }
+
+    @Test
+    void BeatInARowTest() throws IOException {
+        assertThat(new Perft(6).perft(FixtureBoard("beat_in_a_row.txt"), Colour.WHITE, 6)).isEqualTo(1254);
+    }
+
+    @Test
+    void KingBeatInARowTest() throws IOException {
+        assertThat(new Perft(4).perft(FixtureBoard("king_beat_in_a_row.txt"), Colour.WHITE, 4)).isEqualTo(9303);
+    }
+
+    @Test
+    void OneKingMoveTest() throws IOException {
+        assertThat(new Perft(4).perft(FixtureBoard("one_king_move.txt"), Colour.WHITE, 4)).isEqualTo(4903);
+    }
+
+    @Test
+    void PerftWithChecksTest() throws IOException {
+        Perft perft = new Perft(4);
+        assertThat(perft.perftWithChecks(FixtureBoard("one_beat.txt"), Colour.WHITE, 4)).isEqualTo(955);
+        assertThat(perft.perftWithChecks(FixtureBoard("king_beat_in_a_row.txt"), Colour.WHITE, 3)).isEqualTo(706);
+    }
+
+    @Test
+    void CapitalSquareLettersTest() {
+        TowersBoard board = new TowersBoard("C3_w E3_wb g1_W", "D6_b F6_bw h8_B");
+        StringBuilder notation = new StringBuilder();
+        TowersMoveGenerator generator = new TowersMoveGenerator(board);
+        MoveBuffer moves = new MoveBuffer();
+        for (int i = 0; i < generator.generate(Colour.WHITE, moves); ++i) {
+            generator.appendNotation(moves, i, notation.append(' '));
+        }
+        assertThat(notation.toString()).contains(" C3_w-D4_w", " C3_w-B4_w");
+        Perft perft = new Perft(4);
+        assertThat(perft.perftWithChecks(board, Colour.WHITE, 4)).isEqualTo(perft.perft(board, Colour.WHITE, 4));
+    }
+
+    @Test
+    void MakeMoveKeepsCapitalSquareLettersTest() throws Exception {
+        MakeMoveMatchesNotation(new TowersBoard("C3_w E3_wb g1_W", "D4_b F6_bw h8_B"));
+        MakeMoveMatchesNotation(new TowersBoard("C3_w g1_W", "h8_B"));
+    }
+
+    private static void MakeMoveMatchesNotation(TowersBoard board) throws Exception {
+        String position = board.getAllFigures();
+        TowersMoveGenerator generator = new TowersMoveGenerator(board);
+        MoveBuffer moves = new MoveBuffer();
+        UndoRecord undo = new UndoRecord();
+        StringBuilder notation = new StringBuilder();
+        for (int i = 0; i < generator.generate(Colour.WHITE, moves); ++i) {
+            notation.setLength(0);
+            generator.appendNotation(moves, i, notation);
+            TowersBoard child = new TowersBoard(board);
+            child.makeMove(notation, Colour.WHITE);
+            board.makeMove(moves, i, undo);
+            assertThat(board.getAllFigures()).as(notation.toString()).isEqualTo(child.getAllFigures());
+            board.unmakeMove(undo);
+            assertThat(board.getAllFigures()).isEqualTo(position);
+        }
+    }
+
+    @Test
+    void PerftDoesNotChangeBoardTest() throws IOException {
+        TowersBoard board = FixtureBoard("king_beat_in_a_row.txt");
+        long key = board.getZobristKey();
+        new Perft(3).perft(board, Colour.WHITE, 3);
+        assertThat(board.getZobristKey()).isEqualTo(key);
+        assertThat(Assertions.assertDoesNotThrow(board::getAllFigures)).isEqualTo(
+                "d6_wB g7_wb \nb6_BW c1_BwwW c3_bb d2_Bbbb \n");
+    }
+}
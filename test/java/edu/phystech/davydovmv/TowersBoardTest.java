@@ -3,13 +3,16 @@ package edu.phystech.davydovmv;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
 import static org.assertj.core.api.Assertions.*;
 
 public class TowersBoardTest {
     @Test
     void CreateBoardTest() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/only_create_board.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/only_create_board.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "a1_w a3_w b2_w c1_w c3_w d2_w e1_w e3_w f2_w g1_w g3_w h2_w \na7_b b6_b b8_b c7_b d6_b d8_b e7_b f6_b f8_b g7_b h6_b h8_b \n");
     }
@@ -17,7 +20,7 @@ public class TowersBoardTest {
     @Test
     void OneMoveTest() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/one_move.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/one_move.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "a1_w a3_w b2_w c1_w d2_w d4_w e1_w e3_w f2_w g1_w g3_w h2_w \na7_b b6_b b8_b c7_b d6_b d8_b e7_b f6_b f8_b g5_b g7_b h8_b \n");
     }
@@ -25,7 +28,7 @@ public class TowersBoardTest {
     @Test
     void OneKingMove() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/one_king_move.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/one_king_move.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "b6_w c1_ww h6_Wbw \na3_bbw b4_B h4_bBW \n");
     }
@@ -33,7 +36,7 @@ public class TowersBoardTest {
     @Test
     void OneBeat() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/one_beat.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/one_beat.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "c5_Ww f4_w g5_wbwbb \nb4_bBwWw f2_bBb \n");
     }
@@ -41,7 +44,7 @@ public class TowersBoardTest {
     @Test
     void BeatInARow() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/beat_in_a_row.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/beat_in_a_row.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "c3_w d4_ww \nc1_Bwww d2_bbbb e5_B \n");
     }
@@ -49,14 +52,14 @@ public class TowersBoardTest {
     @Test
     void KingBeatInARow() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/king_beat_in_a_row.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/king_beat_in_a_row.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "d6_wB g7_wb \nb6_BW c1_BwwW c3_bb d2_Bbbb \n");
     }
 
     void GeneralError(int i) throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/general_errors/general_error_"
+                "test/java/edu/phystech/davydovmv/TowersBoard/general_errors/general_error_"
                         + i
                         + ".txt");
         Board.GeneralErrorException thrown =
@@ -74,7 +77,7 @@ public class TowersBoardTest {
     @Test
     void BusyCell() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/busy_cell.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/busy_cell.txt");
         Board.BusyCellException thrown =
                 Assertions.assertThrows(Board.BusyCellException.class, board::run);
         Assertions.assertEquals("busy cell", thrown.getMessage());
@@ -83,7 +86,7 @@ public class TowersBoardTest {
     @Test
     void WhiteCell() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/white_cell.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/white_cell.txt");
         Board.WhiteCellException thrown =
                 Assertions.assertThrows(Board.WhiteCellException.class, board::run);
         Assertions.assertEquals("white cell", thrown.getMessage());
@@ -91,7 +94,7 @@ public class TowersBoardTest {
 
     void InvalidMove(int i) throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/invalid_moves/invalid_move_"
+                "test/java/edu/phystech/davydovmv/TowersBoard/invalid_moves/invalid_move_"
                         + i
                         + ".txt");
         Board.InvalidMoveException thrown =
@@ -109,7 +112,7 @@ public class TowersBoardTest {
     @Test
     void GameEnded() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/game_ended.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/game_ended.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "c3_wb \n\n");
     }
@@ -117,7 +120,7 @@ public class TowersBoardTest {
     @Test
     void LongGame1() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/long_games/long_game_1.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/long_games/long_game_1.txt");
         Board.InvalidMoveException thrown =
                 Assertions.assertThrows(Board.InvalidMoveException.class, board::run);
         Assertions.assertEquals("invalid move", thrown.getMessage());
@@ -126,8 +129,67 @@ public class TowersBoardTest {
     @Test
     void LongGame2() throws IOException {
         Board board = new TowersBoard(
-                "/home/mikhail/Java/checkers/src/test/java/edu/phystech/davydovmv/TowersBoard/long_games/long_game_2.txt");
+                "test/java/edu/phystech/davydovmv/TowersBoard/long_games/long_game_2.txt");
         assertThat(Assertions.assertDoesNotThrow(board::run)).isEqualTo(
                 "a7_wbb b6_Wwbbbb c1_w e1_w e5_ww f2_w g1_w \na3_bwww b8_b f8_b g5_b g7_b h8_b \n");
     }
+
+    @Test
+    void TowerEqualsAndHashCode() {
+        Tower tower = new Tower(Colour.WHITE, "c3_wb");
+        Tower sameTop = new Tower(Colour.WHITE, "c3_Ww");
+        Assertions.assertEquals(tower, sameTop);
+        Assertions.assertEquals(tower.hashCode(), sameTop.hashCode());
+        Assertions.assertNotEquals(tower, new Tower(Colour.BLACK, "c3_bw"));
+        Assertions.assertNotEquals(tower, new Tower(Colour.WHITE, "e3_wb"));
+        Set<Tower> towers = new HashSet<>();
+        towers.add(tower);
+        Assertions.assertTrue(towers.contains(new Tower(Colour.WHITE, "c3_w")));
+    }
+
+    @Test
+    void SnapshotRestore() throws Exception {
+        TowersBoard board = new TowersBoard(TowersBoard.INITIAL_WHITE_POSITIONS, TowersBoard.INITIAL_BLACK_POSITIONS);
+        board.makeMoves("c3_w-d4_w f6_b-e5_b");
+        String position = board.getAllFigures();
+        Board.Snapshot snapshot = board.snapshot();
+        board.makeMoves("d4_w:f6_wb g7_b:e5_bw");
+        String positionAfterCapture = board.getAllFigures();
+        Assertions.assertEquals(MoveResult.WHITE_CELL, board.tryMakeMoves("a1_w-a2_w"));
+
+        board.restore(snapshot);
+        Assertions.assertEquals(position, board.getAllFigures());
+        Assertions.assertEquals(snapshot.getZobristKey(), board.getZobristKey());
+        Assertions.assertEquals(1, board.getMovesCount());
+        board.makeMoves("d4_w:f6_wb g7_b:e5_bw");
+        Assertions.assertEquals(positionAfterCapture, board.getAllFigures());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TowersBoard().restore(snapshot));
+    }
+
+    @Test
+    void FiguresOnWhiteSquares() throws Exception {
+        TowersBoard board = new TowersBoard("a2_w c3_w", "h8_b");
+        board.makeMoves("c3_w-d4_w h8_b-g7_b");
+        Assertions.assertEquals("a2_w d4_w \ng7_b \n", board.getAllFigures());
+        Assertions.assertEquals(MoveResult.WHITE_CELL, new TowersBoard("a2_w c3_w", "h8_b").tryMakeMoves("a2_w-b3_w"));
+        Assertions.assertEquals(MoveResult.INVALID_MOVE,
+                new TowersBoard("a2_w c3_w", "b3_b h8_b").tryMakeMoves("c3_w-d4_w h8_b-g7_b"));
+        Assertions.assertEquals(MoveResult.GENERAL_ERROR,
+                new TowersBoard("a2_w c3_w", "b1_b").tryMakeMoves("c3_w-d4_w"));
+    }
+
+    @Test
+    void TooTallTowers() throws Exception {
+        String tooTall = "d4_b" + "wb".repeat(Zobrist.MAX_HEIGHT / 2);
+        Assertions.assertEquals(MoveResult.GENERAL_ERROR, new TowersBoard("c3_w", tooTall).tryMakeMoves("c3_w:e5_wb"));
+        Board board = new TowersBoard(new LineReader(new StringReader("c3_w\n" + tooTall + "\nc3_w:e5_wb\n")));
+        Assertions.assertEquals(MoveResult.GENERAL_ERROR, board.check().getResult());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Tower(Colour.BLACK, tooTall));
+
+        String tallest = "c3_" + "w".repeat(Zobrist.MAX_HEIGHT);
+        TowersBoard capturing = new TowersBoard(tallest, "d4_b h8_b");
+        Assertions.assertEquals(0, new TowersMoveGenerator(capturing).generate(Colour.WHITE, new MoveBuffer()));
+        Assertions.assertEquals(MoveResult.GENERAL_ERROR,
+                capturing.tryMakeMoves(tallest + ":e5_" + tallest.substring(3) + "b h8_b-g7_b"));
+    }
 }